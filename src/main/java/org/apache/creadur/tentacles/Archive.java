@@ -33,7 +33,6 @@ public class Archive {
     private final FileSystem fileSystem;
     private final URI uri;
     private final File file;
-    private final Map<URI, URI> map;
 
     private final Set<License> licenses = new HashSet<>();
     private final Set<Notice> notices = new HashSet<>();
@@ -43,7 +42,10 @@ public class Archive {
 
     private final Set<License> otherLicenses = new HashSet<>();
     private final Set<Notice> otherNotices = new HashSet<>();
+    private Map<URI, URI> map;
     private Map<URI, URI> others;
+    private File contents;
+    private LegalDocumentIndex legalDocuments;
 
     public Archive(final File file, final FileSystem fileSystem,
             final Layout layout) {
@@ -53,7 +55,6 @@ public class Archive {
                 layout.getRepositoryDirectory().toURI()
                         .relativize(file.toURI());
         this.file = file;
-        this.map = map();
     }
 
     public Set<License> getDeclaredLicenses() {
@@ -88,7 +89,20 @@ public class Archive {
         return this.file;
     }
 
+    /**
+     * @return the legal documents of the contents, indexed on first use
+     */
+    public LegalDocumentIndex getLegalDocuments() {
+        if (this.legalDocuments == null) {
+            this.legalDocuments = this.fileSystem.legalDocumentsIn(contentsDirectory());
+        }
+        return this.legalDocuments;
+    }
+
     public Map<URI, URI> getLegal() {
+        if (this.map == null) {
+            this.map = map();
+        }
         return this.map;
     }
 
@@ -101,8 +115,7 @@ public class Archive {
 
     private Map<URI, URI> mapOther() {
         final File jarContents = contentsDirectory();
-        final List<File> legal =
-                this.fileSystem.legalDocumentsUndeclaredIn(jarContents);
+        final List<File> legal = getLegalDocuments().getUndeclared();
 
         return buildMapFrom(jarContents, legal);
     }
@@ -123,17 +136,28 @@ public class Archive {
 
     private Map<URI, URI> map() {
         final File jarContents = contentsDirectory();
-        final List<File> legal =
-                this.fileSystem.legalDocumentsDeclaredIn(jarContents);
+        final List<File> legal = getLegalDocuments().getDeclared();
 
         return buildMapFrom(jarContents, legal);
     }
 
     public File contentsDirectory() {
-        final File archiveDocument = getFile();
+        if (this.contents == null) {
+            this.contents = contentsDirectoryOf(getFile(), this.layout);
+            this.fileSystem.mkdirs(this.contents);
+        }
+        return this.contents;
+    }
+
+    /**
+     * @return where the contents of the archive are extracted to, without
+     *         looking at or creating anything on disk
+     */
+    static File contentsDirectoryOf(final File archiveDocument,
+            final Layout layout) {
         String path =
                 archiveDocument.getAbsolutePath().substring(
-                        this.layout.getLocalRootDirectory().getAbsolutePath()
+                        layout.getLocalRootDirectory().getAbsolutePath()
                                 .length() + 1);
 
         if (path.startsWith("repo/")) {
@@ -143,11 +167,7 @@ public class Archive {
             path = path.substring("content/".length());
         }
 
-        final File contents =
-                new File(this.layout.getContentRootDirectory(), path
-                        + ".contents");
-        this.fileSystem.mkdirs(contents);
-        return contents;
+        return new File(layout.getContentRootDirectory(), path + ".contents");
     }
 
     public URI contentsURI() {
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+
+/**
+ * Reads the file entries of a zip or of a plain, gzip, bzip2 or xz
+ * compressed tar in a single pass, so that both are unpacked the same way.
+ */
+abstract class ArchiveReader implements Closeable {
+
+    /**
+     * Tells the format from the first bytes of the stream, and of the
+     * decompressed stream for a compressed one.
+     *
+     * @return the reader, or null if the stream is no archive, in which
+     *         case the stream is left open
+     */
+    static ArchiveReader open(final InputStream in) throws IOException {
+        final InputStream head = markable(in);
+        final ArchiveType type = ArchiveType.of(head);
+
+        if (type == null) {
+            return null;
+        }
+        if (type == ArchiveType.ZIP) {
+            return zip(head);
+        }
+        if (type == ArchiveType.TAR) {
+            return new Tar(head);
+        }
+
+        final InputStream decompressed = markable(decompress(type, head));
+        if (ArchiveType.of(decompressed) != ArchiveType.TAR) {
+            return null;
+        }
+        return new Tar(decompressed);
+    }
+
+    static ArchiveReader zip(final InputStream in) {
+        return new Zip(new ZipInputStream(in));
+    }
+
+    private static InputStream decompress(final ArchiveType type,
+            final InputStream in) throws IOException {
+        switch (type) {
+        case GZIP:
+            return GzipCompressorInputStream.builder().setInputStream(in)
+                    .setDecompressConcatenated(true).get();
+        case BZIP2:
+            return new BZip2CompressorInputStream(in, true);
+        default:
+            return XZCompressorInputStream.builder().setInputStream(in)
+                    .setDecompressConcatenated(true).get();
+        }
+    }
+
+    private static InputStream markable(final InputStream in) {
+        return in.markSupported() ? in : new BufferedInputStream(in, ArchiveType.HEAD);
+    }
+
+    /**
+     * @return the path of the next file entry, or null after the last one
+     */
+    abstract String next() throws IOException;
+
+    /**
+     * @return the content of the current entry
+     */
+    abstract InputStream content();
+
+    private static final class Zip extends ArchiveReader {
+
+        private final ZipInputStream zip;
+
+        Zip(final ZipInputStream zip) {
+            this.zip = zip;
+        }
+
+        @Override
+        String next() throws IOException {
+            ZipEntry entry;
+            while ((entry = this.zip.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    return entry.getName();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        InputStream content() {
+            return this.zip;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.zip.close();
+        }
+    }
+
+    private static final class Tar extends ArchiveReader {
+
+        private final TarArchiveInputStream tar;
+
+        Tar(final InputStream in) {
+            this.tar = new TarArchiveInputStream(in);
+        }
+
+        @Override
+        String next() throws IOException {
+            TarArchiveEntry entry;
+            while ((entry = this.tar.getNextEntry()) != null) {
+                // directories, links and devices have no content
+                if (entry.isFile()) {
+                    return entry.getName();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        InputStream content() {
+            return this.tar;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.tar.close();
+        }
+    }
+}
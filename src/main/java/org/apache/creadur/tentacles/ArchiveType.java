@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The formats that are unpacked, told apart by the first bytes of a file
+ * rather than by its name, so that a file which is no archive is skipped
+ * without trying to read it as one and an archive is unpacked whatever it
+ * is called.
+ */
+enum ArchiveType {
+
+    ZIP, TAR, GZIP, BZIP2, XZ;
+
+    /**
+     * Bytes needed to tell the type, a tar has its magic after the name,
+     * mode and size fields of its first header.
+     */
+    static final int HEAD = 512;
+
+    private static final int TAR_MAGIC = 257;
+
+    /**
+     * Peeks at the first bytes of the stream, which are read again
+     * afterwards.
+     *
+     * @param in a stream supporting mark and reset
+     * @return the type, or null if the stream is no archive
+     */
+    static ArchiveType of(final InputStream in) throws IOException {
+        final byte[] head = new byte[HEAD];
+        int length = 0;
+        in.mark(HEAD);
+        try {
+            int read;
+            while (length < HEAD && (read = in.read(head, length, HEAD - length)) != -1) {
+                length += read;
+            }
+        } finally {
+            in.reset();
+        }
+        return of(head, length);
+    }
+
+    static ArchiveType of(final byte[] head, final int length) {
+        if (startsWith(head, length, 'P', 'K', 3, 4)
+                || startsWith(head, length, 'P', 'K', 5, 6)
+                || startsWith(head, length, 'P', 'K', 7, 8)) {
+            return ZIP;
+        }
+        if (startsWith(head, length, 0x1f, 0x8b)) {
+            return GZIP;
+        }
+        if (startsWith(head, length, 'B', 'Z', 'h')) {
+            return BZIP2;
+        }
+        if (startsWith(head, length, 0xfd, '7', 'z', 'X', 'Z', 0)) {
+            return XZ;
+        }
+        // "ustar\0" for posix, "ustar " for gnu
+        if (length >= TAR_MAGIC + 5
+                && new String(head, TAR_MAGIC, 5, StandardCharsets.US_ASCII).equals("ustar")) {
+            return TAR;
+        }
+        return null;
+    }
+
+    /**
+     * @return true for a compression around a single stream, which is only
+     *         unpacked if that stream is a tar
+     */
+    boolean isCompressed() {
+        return this == GZIP || this == BZIP2 || this == XZ;
+    }
+
+    private static boolean startsWith(final byte[] head, final int length,
+            final int... magic) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((head[i] & 0xff) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.security.MessageDigest;
+import java.util.Locale;
+
+/**
+ * An expected digest of a resource, as published by its checksum sidecar.
+ */
+public class Checksum {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Reads the content of a sidecar, which is either the bare hex digest or
+     * the digest followed by the file name as written by {@code sha1sum}.
+     *
+     * @return the checksum, or null if the text holds no digest of the type
+     */
+    public static Checksum parse(final ChecksumType type, final String text) {
+        final String[] tokens = text.trim().split("\\s+");
+        if (tokens.length == 0) {
+            return null;
+        }
+
+        final String value = tokens[0].toLowerCase(Locale.ROOT);
+        if (value.length() != type.hexLength() || !value.matches("[0-9a-f]+")) {
+            return null;
+        }
+        return new Checksum(type, value);
+    }
+
+    public static String toHex(final MessageDigest digest) {
+        final byte[] bytes = digest.digest();
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private final ChecksumType type;
+    private final String value;
+
+    public Checksum(final ChecksumType type, final String value) {
+        this.type = type;
+        this.value = value;
+    }
+
+    public ChecksumType getType() {
+        return this.type;
+    }
+
+    public String getValue() {
+        return this.value;
+    }
+
+    public boolean matches(final String hex) {
+        return this.value.equalsIgnoreCase(hex);
+    }
+
+    @Override
+    public String toString() {
+        return this.type.getExtension() + ":" + this.value;
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+
+/**
+ * The checksum files Maven repositories publish next to every artifact,
+ * strongest first.
+ */
+public enum ChecksumType {
+
+    SHA512("sha512", "SHA-512"), SHA1("sha1", "SHA-1"), MD5("md5", "MD5");
+
+    /**
+     * @return the sidecar of the strongest checksum published for the given
+     *         resource, or null if the resources contain none
+     */
+    public static URI sidecarIn(final URI uri, final Set<URI> resources) {
+        for (final ChecksumType type : values()) {
+            final URI sidecar = type.sidecarOf(uri);
+            if (resources.contains(sidecar)) {
+                return sidecar;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the type of the given sidecar, or null if it is none
+     */
+    public static ChecksumType of(final URI sidecar) {
+        for (final ChecksumType type : values()) {
+            if (sidecar.getPath().endsWith("." + type.extension)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the type computed by the given digest
+     */
+    public static ChecksumType of(final MessageDigest digest) {
+        for (final ChecksumType type : values()) {
+            if (type.algorithm.equals(digest.getAlgorithm())) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown checksum algorithm " + digest.getAlgorithm());
+    }
+
+    private final String extension;
+    private final String algorithm;
+
+    ChecksumType(final String extension, final String algorithm) {
+        this.extension = extension;
+        this.algorithm = algorithm;
+    }
+
+    public String getExtension() {
+        return this.extension;
+    }
+
+    /**
+     * @return false if equal checksums of this type do not mean equal
+     *         contents, because collisions are cheap to make
+     */
+    public boolean identifiesContents() {
+        return this != MD5;
+    }
+
+    public URI sidecarOf(final URI uri) {
+        return URI.create(uri.toString() + "." + this.extension);
+    }
+
+    public MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(this.algorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(this.algorithm + " is required by the Java platform", e);
+        }
+    }
+
+    /**
+     * @return the length of a hex encoded digest of this type
+     */
+    int hexLength() {
+        return newDigest().getDigestLength() * 2;
+    }
+}
@@ -28,6 +28,20 @@ public class Configuration {
             "org/apache/openejb";
     private static final String SYSTEM_PROPERTY_NAME_FOR_FILE_REPOSITORY_PATH_NAME_FILTER =
             "filter";
+    private static final String SYSTEM_PROPERTY_NAME_FOR_STREAMING =
+            "streaming";
+    private static final String SYSTEM_PROPERTY_NAME_FOR_STORE =
+            "store";
+    private static final String SYSTEM_PROPERTY_NAME_FOR_MIRROR =
+            "mirror";
+    private static final String SYSTEM_PROPERTY_NAME_FOR_INCLUDES =
+            "includes";
+    private static final String SYSTEM_PROPERTY_NAME_FOR_EXCLUDES =
+            "excludes";
+    private static final String SYSTEM_PROPERTY_NAME_FOR_SKIP_CLASSIFIERS =
+            "skipClassifiers";
+    private static final String SYSTEM_PROPERTY_NAME_FOR_SKIP_EXTENSIONS =
+            "skipExtensions";
     private static final int ARGUMENT_INDEX_FOR_LOCAL_ROOT_DIRECTORY = 1;
     private static final int ARGUMENT_INDEX_FOR_URI_CONFIGURATION = 0;
     private static final int ARGUMENT_LENGTH_FOR_URI_CONFIGURATION_ONLY =
@@ -44,6 +58,13 @@ public class Configuration {
     private final URI stagingRepositoryURI;
     private final String rootDirectoryForLocalOutput;
     private final String fileRepositoryPathNameFilter;
+    private final boolean streaming;
+    private final String storeDirectory;
+    private final String mirror;
+    private final String includes;
+    private final String excludes;
+    private final String skipClassifiers;
+    private final String skipExtensions;
 
     public Configuration(final String... args) throws URISyntaxException {
         this.stagingRepositoryURI = toURI(args[ARGUMENT_INDEX_FOR_URI_CONFIGURATION]);
@@ -52,12 +73,77 @@ public class Configuration {
                 System.getProperty(
                         SYSTEM_PROPERTY_NAME_FOR_FILE_REPOSITORY_PATH_NAME_FILTER,
                         DEFAULT_FILE_REPOSITORY_PATH_NAME_FILTER);
+        this.streaming = Boolean.getBoolean(SYSTEM_PROPERTY_NAME_FOR_STREAMING);
+        this.storeDirectory = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_STORE);
+        this.mirror = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_MIRROR, "copy");
+        if (!"copy".equals(this.mirror) && !"link".equals(this.mirror)
+                && !"symlink".equals(this.mirror)) {
+            throw new IllegalArgumentException("Unknown mirror " + this.mirror);
+        }
+        this.includes = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_INCLUDES, "");
+        this.excludes = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_EXCLUDES, "");
+        this.skipClassifiers = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_SKIP_CLASSIFIERS, "");
+        this.skipExtensions = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_SKIP_EXTENSIONS, "");
     }
 
     public String getFileRepositoryPathNameFilter() {
         return this.fileRepositoryPathNameFilter;
     }
 
+    /**
+     * @return true if remote archives are to be scanned as they are
+     *         downloaded instead of being mirrored first
+     */
+    public boolean isStreaming() {
+        return this.streaming;
+    }
+
+    /**
+     * @return the directory of the content store shared by all runs, or
+     *         null if every run keeps its own archives and contents
+     */
+    public String getStoreDirectory() {
+        return this.storeDirectory;
+    }
+
+    /**
+     * @return how the archives of a file repository are mirrored:
+     *         {@code copy}, hardlinked with {@code link}, or left in place
+     *         behind a {@code symlink}
+     */
+    public String getMirror() {
+        return this.mirror;
+    }
+
+    /**
+     * @return comma separated globs of the repository paths to crawl, all if
+     *         empty
+     */
+    public String getIncludes() {
+        return this.includes;
+    }
+
+    /**
+     * @return comma separated globs of the repository paths not to crawl
+     */
+    public String getExcludes() {
+        return this.excludes;
+    }
+
+    /**
+     * @return comma separated classifiers of the artifacts not to crawl
+     */
+    public String getSkipClassifiers() {
+        return this.skipClassifiers;
+    }
+
+    /**
+     * @return comma separated extensions of the artifacts not to crawl
+     */
+    public String getSkipExtensions() {
+        return this.skipExtensions;
+    }
+
     public URI getStagingRepositoryURI() {
         return this.stagingRepositoryURI;
     }
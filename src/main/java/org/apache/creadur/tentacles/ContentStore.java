@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps archives and their extracted contents by digest, so that runs on
+ * different repositories share every archive they have in common. Files
+ * are hardlinked from the store into the {@code repo} and {@code content}
+ * directories of a run, and copied where the file system cannot link.
+ *
+ * <pre>
+ * store/objects/sha1/ab/ab12...        an archive
+ * store/contents/all/sha1/ab/ab12.../  the extracted contents of that archive
+ * </pre>
+ */
+public class ContentStore {
+
+    private static final Logger log = LogManager.getLogger(ContentStore.class);
+
+    private final FileSystem fileSystem;
+    private final File objects;
+    private final File contents;
+    private final Map<File, Checksum> checksums = new ConcurrentHashMap<>();
+
+    public ContentStore(final Platform platform, final File directory) {
+        this.fileSystem = platform.getFileSystem();
+        this.objects = new File(directory, "objects");
+        this.contents = new File(directory, "contents");
+    }
+
+    /**
+     * Links the stored archive with the given checksum to the file.
+     *
+     * @return false if the store holds no such archive
+     */
+    public boolean fetch(final Checksum checksum, final File file)
+            throws IOException {
+        final File object = locate(this.objects, checksum);
+        if (!object.isFile()) {
+            return false;
+        }
+
+        file.getParentFile().mkdirs();
+        link(object, file);
+        this.checksums.put(file.getAbsoluteFile(), checksum);
+        return true;
+    }
+
+    /**
+     * Adds a verified archive to the store, unless it already holds it, and
+     * remembers the checksum of the file for {@link #checksumOf(File)}.
+     */
+    public void put(final Checksum checksum, final File file)
+            throws IOException {
+        final File object = locate(this.objects, checksum);
+        if (!object.isFile()) {
+            object.getParentFile().mkdirs();
+            link(file, object);
+        }
+        this.checksums.put(file.getAbsoluteFile(), checksum);
+    }
+
+    /**
+     * @return the checksum the file was fetched or stored with during this
+     *         run, or null if it is not in the store
+     */
+    public Checksum checksumOf(final File file) {
+        return this.checksums.get(file.getAbsoluteFile());
+    }
+
+    /**
+     * Links the stored contents of the archive with the given checksum into
+     * the contents directory.
+     *
+     * @param extract what was extracted, {@code all} or only the
+     *            {@code legal} documents
+     * @return false if the archive was never extracted into the store
+     */
+    public boolean fetchContents(final Checksum checksum, final String extract,
+            final File directory) throws IOException {
+        final File stored = locate(new File(this.contents, extract), checksum);
+        if (!stored.isDirectory()) {
+            return false;
+        }
+
+        linkTree(stored.toPath(), directory.toPath());
+        return true;
+    }
+
+    /**
+     * Adds the completely extracted contents of an archive to the store.
+     * The contents are linked into a temporary directory first, which is
+     * only renamed into place once it is complete, so concurrent runs never
+     * see a partial tree.
+     */
+    public void putContents(final Checksum checksum, final String extract,
+            final File directory) throws IOException {
+        final File stored = locate(new File(this.contents, extract), checksum);
+        if (stored.isDirectory()) {
+            return;
+        }
+
+        final File tmp = new File(stored.getParentFile(), ".tmp-" + UUID.randomUUID());
+        linkTree(directory.toPath(), tmp.toPath());
+
+        try {
+            Files.move(tmp.toPath(), stored.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (final FileSystemException e) {
+            // stored by another run in the meantime
+            log.debug("Already stored {}", stored, e);
+            this.fileSystem.delete(tmp);
+        }
+    }
+
+    private static File locate(final File root, final Checksum checksum) {
+        final String hex = checksum.getValue();
+        return new File(root, checksum.getType().getExtension() + "/"
+                + hex.substring(0, 2) + "/" + hex);
+    }
+
+    /**
+     * Makes {@code to} a hardlink of {@code from}, replacing what was there.
+     */
+    private static void link(final File from, final File to) throws IOException {
+        final Path tmp = new File(to.getParentFile(), ".tmp-" + UUID.randomUUID()).toPath();
+        try {
+            Files.createLink(tmp, from.toPath());
+        } catch (final UnsupportedOperationException | FileAlreadyExistsException e) {
+            throw new IOException("Cannot link " + to, e);
+        } catch (final FileSystemException e) {
+            // for example because the store is on another file system
+            Files.copy(from.toPath(), tmp);
+        }
+        Files.move(tmp, to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void linkTree(final Path from, final Path to) throws IOException {
+        Files.walkFileTree(from, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir,
+                    final BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(to.resolve(from.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                    final BasicFileAttributes attrs) throws IOException {
+                link(file.toFile(), to.resolve(from.relativize(file)).toFile());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
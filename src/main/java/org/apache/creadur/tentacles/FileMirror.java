@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Mirrors the archives of a file repository, as a {@code copy}, hardlinked
+ * with {@code link}, or left in place behind a {@code symlink}. A copy
+ * whose size and last modification match the archive, or a link to it, is
+ * kept as it is.
+ */
+class FileMirror {
+
+    private static final Logger log = LogManager.getLogger(FileMirror.class);
+
+    private final FileSystem fileSystem;
+    private final IOSystem ioSystem;
+    private final String mode;
+    private final ContentStore contentStore;
+
+    FileMirror(final Platform platform, final String mode,
+            final ContentStore contentStore) {
+        this.fileSystem = platform.getFileSystem();
+        this.ioSystem = platform.getIoSystem();
+        this.mode = mode;
+        this.contentStore = contentStore;
+    }
+
+    File mirror(final File src, final File file) throws IOException {
+        final Path target = file.toPath();
+
+        this.fileSystem.mkparent(file);
+
+        if ("symlink".equals(this.mode)) {
+            if (Files.isSymbolicLink(target)
+                    && Files.readSymbolicLink(target).equals(src.toPath())) {
+                return file;
+            }
+            log.info("Link {}", src);
+            Files.deleteIfExists(target);
+            Files.createSymbolicLink(target, src.toPath());
+            return file;
+        }
+
+        if ("link".equals(this.mode)) {
+            // a symlink left by a run in symlink mode is the same file too
+            if (!Files.isSymbolicLink(target) && Files.exists(target)
+                    && Files.isSameFile(target, src.toPath())) {
+                return file;
+            }
+            log.info("Link {}", src);
+            Files.deleteIfExists(target);
+            try {
+                Files.createLink(target, src.toPath());
+                return file;
+            } catch (final FileSystemException e) {
+                // another file system, copied instead
+                log.debug("Cannot link {}", src, e);
+            }
+        }
+
+        if (isUnchangedCopy(src, file)) {
+            log.debug("Unchanged {}", src);
+            return file;
+        }
+
+        log.info("Copy {}", src);
+
+        if (this.contentStore == null) {
+            Files.copy(src.toPath(), target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.COPY_ATTRIBUTES);
+        } else {
+            // the mirrored file may be a link into the store
+            Files.deleteIfExists(target);
+
+            final MessageDigest digest = ChecksumType.SHA1.newDigest();
+            try (InputStream in = this.ioSystem.read(src)) {
+                this.ioSystem.copy(in, file, digest);
+            }
+            file.setLastModified(src.lastModified());
+            this.contentStore.put(new Checksum(ChecksumType.SHA1, Checksum.toHex(digest)), file);
+        }
+
+        return file;
+    }
+
+    /**
+     * @return true if the file is a copy of the archive, and not a link left
+     *         behind by a run in another mode, which matches it just as well
+     */
+    private static boolean isUnchangedCopy(final File src, final File file)
+            throws IOException {
+        final Path target = file.toPath();
+        return file.isFile() && !Files.isSymbolicLink(target)
+                && !Files.isSameFile(target, src.toPath())
+                && file.length() == src.length()
+                && file.lastModified() == src.lastModified();
+    }
+}
@@ -18,8 +18,24 @@ package org.apache.creadur.tentacles;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Pattern;
 
 import org.apache.creadur.tentacles.filter.Filters;
@@ -27,19 +43,91 @@ import org.apache.creadur.tentacles.filter.Filters;
 public class FileSystem {
 
     private final Filters filters;
+    private final int threads;
+    private ForkJoinPool pool;
 
     public FileSystem() {
         this.filters = new Filters();
+        this.threads = Integer.parseInt(System.getProperty("FileSystem.threads", "1"));
     }
 
-    public List<File> legalDocumentsUndeclaredIn(final File contents) {
-        return collect(contents,
-                this.filters.legalDocumentsUndeclaredIn(contents));
+    /**
+     * Indexes the legal documents of a contents directory, walking it only
+     * once for all of them.
+     */
+    public LegalDocumentIndex legalDocumentsIn(final File contents) {
+        final LegalDocumentIndex index = new LegalDocumentIndex();
+        final Path root = contents.toPath();
+
+        if (this.threads > 1) {
+            final FileFilter legal = file -> file.isFile()
+                    && (this.filters.isLicense(file.getName()) || this.filters.isNotice(file.getName()));
+            for (final File file : collectInParallel(contents, legal, directory -> true)) {
+                final boolean declared = !isNested(root, file.toPath());
+                if (this.filters.isLicense(file.getName())) {
+                    index.addLicense(file, declared);
+                } else {
+                    index.addNotice(file, declared);
+                }
+            }
+            return index;
+        }
+
+        walk(root, new SimpleFileVisitor<Path>() {
+            // directories entered below the contents of a nested archive
+            private int nested;
+
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir,
+                    final BasicFileAttributes attrs) {
+                if (this.nested > 0 || (!dir.equals(root) && isContents(dir))) {
+                    this.nested++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                    final BasicFileAttributes attrs) {
+                final String name = file.getFileName().toString();
+                if (FileSystem.this.filters.isLicense(name)) {
+                    index.addLicense(file.toFile(), this.nested == 0);
+                } else if (FileSystem.this.filters.isNotice(name)) {
+                    index.addNotice(file.toFile(), this.nested == 0);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir,
+                    final IOException e) {
+                if (this.nested > 0) {
+                    this.nested--;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return index;
     }
 
-    public List<File> legalDocumentsDeclaredIn(final File contents) {
-        return collect(contents,
-                this.filters.legalDocumentsDeclaredIn(contents));
+    private static boolean isContents(final Path dir) {
+        return dir.getFileName().toString().endsWith(".contents");
+    }
+
+    /**
+     * @return true if the file lies in the contents of an archive nested
+     *         in the given contents directory
+     */
+    private static boolean isNested(final Path root, final Path file) {
+        final Path parent = root.relativize(file).getParent();
+        if (parent != null) {
+            for (final Path name : parent) {
+                if (isContents(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     public List<File> collect(final File dir, final String regex) {
@@ -51,19 +139,232 @@ public class FileSystem {
     }
 
     public List<File> collect(final File dir, final FileFilter filter) {
+        return collect(dir, filter, directory -> true);
+    }
+
+    /**
+     * Collects like {@link #collect(File, FileFilter)}, but does not look
+     * into the subdirectories the descend filter rejects.
+     */
+    public List<File> collect(final File dir, final FileFilter filter,
+            final FileFilter descend) {
+        if (this.threads > 1) {
+            return collectInParallel(dir, filter, descend);
+        }
+
+        final List<File> accepted = new ArrayList<>();
+        final Path root = dir.toPath();
+
+        walk(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path path,
+                    final BasicFileAttributes attrs) {
+                final File directory = new WalkedFile(path, attrs);
+                if (!path.equals(root) && !descend.accept(directory)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (filter.accept(directory)) {
+                    accepted.add(path.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path path,
+                    final BasicFileAttributes attrs) {
+                if (filter.accept(new WalkedFile(path, attrs))) {
+                    accepted.add(path.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return accepted;
+    }
+
+    /**
+     * Collects on up to {@code FileSystem.threads} threads, each of them
+     * listing other sibling directories. Every directory is listed in the
+     * order of the names in it, so the files are collected in the same
+     * order on every run.
+     */
+    private List<File> collectInParallel(final File dir, final FileFilter filter,
+            final FileFilter descend) {
+        final Path root = dir.toPath();
+        final BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(root, BasicFileAttributes.class);
+        } catch (final IOException e) {
+            return new ArrayList<>();
+        }
+
         final List<File> accepted = new ArrayList<>();
-        if (filter.accept(dir)) {
+        if (filter.accept(new WalkedFile(root, attrs))) {
             accepted.add(dir);
         }
+        if (attrs.isDirectory()) {
+            accepted.addAll(pool().invoke(new CollectTask(root,
+                    Collections.singleton(attrs.fileKey()), filter, descend)));
+        }
+        return accepted;
+    }
+
+    private synchronized ForkJoinPool pool() {
+        if (this.pool == null) {
+            this.pool = new ForkJoinPool(this.threads);
+        }
+        return this.pool;
+    }
+
+    /**
+     * Collects below one directory, forking a task for each subdirectory.
+     */
+    private static final class CollectTask extends RecursiveTask<List<File>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Set<Object> ancestors;
+        private final FileFilter filter;
+        private final FileFilter descend;
+
+        CollectTask(final Path dir, final Set<Object> ancestors,
+                final FileFilter filter, final FileFilter descend) {
+            this.dir = dir;
+            this.ancestors = ancestors;
+            this.filter = filter;
+            this.descend = descend;
+        }
+
+        @Override
+        protected List<File> compute() {
+            final List<Path> children = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.dir)) {
+                for (final Path child : stream) {
+                    children.add(child);
+                }
+            } catch (final IOException e) {
+                return new ArrayList<>();
+            }
+            Collections.sort(children);
+
+            // either an accepted file or the task collecting a directory
+            final List<Object> results = new ArrayList<>();
+            for (final Path child : children) {
+                final BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                } catch (final IOException e) {
+                    continue;
+                }
 
-        final File[] files = dir.listFiles();
-        if (files != null) {
-            for (final File file : files) {
-                accepted.addAll(collect(file, filter));
+                final File file = new WalkedFile(child, attrs);
+                if (attrs.isDirectory()) {
+                    final Object key = attrs.fileKey();
+                    if (!this.descend.accept(file) || (key != null && this.ancestors.contains(key))) {
+                        continue;
+                    }
+                    if (this.filter.accept(file)) {
+                        results.add(child.toFile());
+                    }
+
+                    final Set<Object> ancestors = new HashSet<>(this.ancestors);
+                    ancestors.add(key);
+                    results.add(new CollectTask(child, ancestors, this.filter, this.descend).fork());
+                } else if (this.filter.accept(file)) {
+                    results.add(child.toFile());
+                }
+            }
+
+            final List<File> accepted = new ArrayList<>();
+            for (final Object result : results) {
+                if (result instanceof CollectTask) {
+                    accepted.addAll(((CollectTask) result).join());
+                } else {
+                    accepted.add((File) result);
+                }
             }
+            return accepted;
         }
+    }
 
-        return accepted;
+    /**
+     * Walks the tree following links, as {@link File#listFiles()} did. A
+     * directory that cannot be read, or that loops back to one of its
+     * ancestors, is skipped.
+     */
+    private static void walk(final Path root, final SimpleFileVisitor<Path> visitor) {
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                    Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(final Path dir,
+                                final BasicFileAttributes attrs) throws IOException {
+                            return visitor.preVisitDirectory(dir, attrs);
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(final Path file,
+                                final BasicFileAttributes attrs) throws IOException {
+                            return visitor.visitFile(file, attrs);
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(final Path file,
+                                final IOException e) {
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult postVisitDirectory(final Path dir,
+                                final IOException e) throws IOException {
+                            return visitor.postVisitDirectory(dir, null);
+                        }
+                    });
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Answers the questions a {@link FileFilter} asks about the type of a
+     * file from the attributes the walk has read anyway, so that filtering
+     * costs no further {@code stat}.
+     */
+    private static final class WalkedFile extends File {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient BasicFileAttributes attrs;
+
+        WalkedFile(final Path path, final BasicFileAttributes attrs) {
+            super(path.toString());
+            this.attrs = attrs;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public boolean isFile() {
+            return this.attrs.isRegularFile();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return this.attrs.isDirectory();
+        }
+
+        @Override
+        public long length() {
+            return this.attrs.size();
+        }
+
+        @Override
+        public long lastModified() {
+            return this.attrs.lastModifiedTime().toMillis();
+        }
     }
 
     public void mkparent(final File file) {
@@ -84,28 +385,63 @@ public class FileSystem {
         assert isDirectory : "Not a directory: " + file;
     }
 
+    /**
+     * Deletes the file, or the directory with everything in it.
+     */
+    public void delete(final File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path path,
+                    final BasicFileAttributes attrs) throws IOException {
+                Files.delete(path);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir,
+                    final IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
     public List<File> documentsFrom(final File repository) {
         return collect(repository, this.filters.filesOnly());
     }
 
     public List<File> licensesFrom(final File directory) {
-        return collect(directory, this.filters.licensesOnly());
+        return legalDocumentsIn(directory).getLicenses();
     }
 
     public List<File> noticesOnly(final File directory) {
-        return collect(directory, this.filters.noticesOnly());
-    }
-
-    public List<File> licensesDeclaredIn(final File contents) {
-        return collect(contents, this.filters.licensesDeclaredIn(contents));
-    }
-
-    public List<File> noticesDeclaredIn(final File contents) {
-        return collect(contents, this.filters.noticesDeclaredIn(contents));
+        return legalDocumentsIn(directory).getNotices();
     }
 
     public List<File> archivesInPath(final File file,
             final String fileRepositoryPathNameFilter) {
         return collect(file, this.filters.archivesInPath(fileRepositoryPathNameFilter));
     }
+
+    /**
+     * @param rules decide on the paths below the repository, directories
+     *            they prune are not walked
+     */
+    public List<File> archivesInPath(final File file,
+            final String fileRepositoryPathNameFilter, final PathRules rules) {
+        final URI root = file.toURI();
+        final FileFilter archives = this.filters.archivesInPath(fileRepositoryPathNameFilter);
+
+        return collect(file,
+                pathname -> archives.accept(pathname)
+                        && rules.accepts(root.relativize(pathname.toURI()).getPath()),
+                dir -> !rules.isPruned(root.relativize(dir.toURI()).getPath()));
+    }
 }
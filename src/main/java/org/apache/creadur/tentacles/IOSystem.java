@@ -19,7 +19,12 @@ package org.apache.creadur.tentacles;
 import org.apache.logging.log4j.*;
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.zip.ZipInputStream;
 
 public class IOSystem {
@@ -70,6 +75,88 @@ public class IOSystem {
 		}
 	}
 
+	/**
+	 * Copies the stream into the file, updating the digests with every byte
+	 * copied so that no second read of the file is needed.
+	 */
+	public void copy(final InputStream from, final File to, final MessageDigest... digests) throws IOException {
+		copy(digested(from, digests), to);
+	}
+
+	/**
+	 * Appends the stream to the file, updating the digests with every byte
+	 * appended.
+	 */
+	public void append(final InputStream from, final File to, final MessageDigest... digests) throws IOException {
+		final OutputStream write = new BufferedOutputStream(
+				Files.newOutputStream(to.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND), 32768);
+		try {
+			copy(digested(from, digests), write);
+		} finally {
+			close(write);
+		}
+	}
+
+	/**
+	 * Writes the stream into an existing file, starting at the given position.
+	 *
+	 * @return the number of bytes written
+	 */
+	public long write(final InputStream from, final File to, final long position) throws IOException {
+		final FileChannel channel = FileChannel.open(to.toPath(), StandardOpenOption.WRITE);
+		try {
+			final byte[] buffer = new byte[32768];
+			long offset = position;
+			int length = 0;
+			while ((length = from.read(buffer)) != -1) {
+				final ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, length);
+				while (bytes.hasRemaining()) {
+					offset += channel.write(bytes, offset);
+				}
+			}
+			return offset - position;
+		} finally {
+			close(channel);
+		}
+	}
+
+	/**
+	 * Reads the rest of the stream, discarding it.
+	 */
+	public void drain(final InputStream in) throws IOException {
+		final byte[] buffer = new byte[32768];
+		while (in.read(buffer) != -1) {
+			// discard
+		}
+	}
+
+	public void digest(final File file, final MessageDigest... digests) throws IOException {
+		final InputStream read = read(file);
+		try {
+			final byte[] buffer = new byte[32768];
+			int length = 0;
+			while ((length = read.read(buffer)) != -1) {
+				for (final MessageDigest digest : digests) {
+					digest.update(buffer, 0, length);
+				}
+			}
+		} finally {
+			close(read);
+		}
+	}
+
+	private static InputStream digested(final InputStream from, final MessageDigest... digests) {
+		InputStream digested = from;
+		if (digests != null) {
+			for (final MessageDigest digest : digests) {
+				if (digest != null) {
+					digested = new DigestInputStream(digested, digest);
+				}
+			}
+		}
+		return digested;
+	}
+
 	private void copy(final InputStream from, final OutputStream to) throws IOException {
 		final byte[] buffer = new byte[1024];
 		int length = 0;
@@ -26,6 +26,7 @@ public class Layout {
     private final File output;
     private final File repository;
     private final File contentRootDirectory;
+    private final File storeDirectory;
 
     public Layout(final Platform platform, final Configuration configuration) {
         super();
@@ -42,6 +43,13 @@ public class Layout {
 
         fileSystem.mkdirs(this.repository);
         fileSystem.mkdirs(this.contentRootDirectory);
+
+        if (configuration.getStoreDirectory() != null) {
+            this.storeDirectory = new File(configuration.getStoreDirectory());
+            fileSystem.mkdirs(this.storeDirectory);
+        } else {
+            this.storeDirectory = null;
+        }
     }
 
     public File getLocalRootDirectory() {
@@ -60,4 +68,11 @@ public class Layout {
         return this.contentRootDirectory;
     }
 
+    /**
+     * @return the content store directory, or null if none is configured
+     */
+    public File getStoreDirectory() {
+        return this.storeDirectory;
+    }
+
 }
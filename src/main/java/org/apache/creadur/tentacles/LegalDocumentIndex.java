@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The license and notice documents of a contents directory, collected in
+ * a single walk. A document is declared by the archive itself unless it
+ * lies in the contents of an archive nested in it.
+ */
+public class LegalDocumentIndex {
+
+    private final List<File> licenses = new ArrayList<>();
+    private final List<File> notices = new ArrayList<>();
+    private final List<File> declaredLicenses = new ArrayList<>();
+    private final List<File> declaredNotices = new ArrayList<>();
+    private final List<File> declared = new ArrayList<>();
+    private final List<File> undeclared = new ArrayList<>();
+
+    void addLicense(final File file, final boolean isDeclared) {
+        this.licenses.add(file);
+        if (isDeclared) {
+            this.declaredLicenses.add(file);
+        }
+        add(file, isDeclared);
+    }
+
+    void addNotice(final File file, final boolean isDeclared) {
+        this.notices.add(file);
+        if (isDeclared) {
+            this.declaredNotices.add(file);
+        }
+        add(file, isDeclared);
+    }
+
+    private void add(final File file, final boolean isDeclared) {
+        if (isDeclared) {
+            this.declared.add(file);
+        } else {
+            this.undeclared.add(file);
+        }
+    }
+
+    /**
+     * @return the licenses of the archive and of the archives nested in it
+     */
+    public List<File> getLicenses() {
+        return Collections.unmodifiableList(this.licenses);
+    }
+
+    /**
+     * @return the notices of the archive and of the archives nested in it
+     */
+    public List<File> getNotices() {
+        return Collections.unmodifiableList(this.notices);
+    }
+
+    public List<File> getDeclaredLicenses() {
+        return Collections.unmodifiableList(this.declaredLicenses);
+    }
+
+    public List<File> getDeclaredNotices() {
+        return Collections.unmodifiableList(this.declaredNotices);
+    }
+
+    /**
+     * @return the licenses and notices of the archive itself
+     */
+    public List<File> getDeclared() {
+        return Collections.unmodifiableList(this.declared);
+    }
+
+    /**
+     * @return the licenses and notices of the archives nested in it
+     */
+    public List<File> getUndeclared() {
+        return Collections.unmodifiableList(this.undeclared);
+    }
+}
@@ -20,13 +20,17 @@ package org.apache.creadur.tentacles;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Licenses {
 
     private final IOSystem ioSystem;
     private final Map<String, String> licenses;
+    private final Map<Object, License> documents = new ConcurrentHashMap<>();
 
     public Licenses(final Map<String, String> licenses, final Platform platform) {
         super();
@@ -34,8 +38,25 @@ public class Licenses {
         this.licenses = Collections.unmodifiableMap(licenses);
     }
 
+    /**
+     * A document shared by several contents directories, which are
+     * hardlinked to the same file, is only read and normalized once.
+     */
     public License from(final File document) throws IOException {
-        return license(this.ioSystem.slurp(document));
+        final Object fileKey = Files.readAttributes(document.toPath(),
+                BasicFileAttributes.class).fileKey();
+        if (fileKey == null) {
+            return license(this.ioSystem.slurp(document));
+        }
+
+        final License known = this.documents.get(fileKey);
+        if (known != null) {
+            return known;
+        }
+
+        final License license = license(this.ioSystem.slurp(document));
+        this.documents.put(fileKey, license);
+        return license;
     }
 
     private License license(final String text) {
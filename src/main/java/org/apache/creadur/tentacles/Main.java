@@ -22,6 +22,7 @@ import static org.apache.creadur.tentacles.RepositoryType.LOCAL_FILE_SYSTEM;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -31,8 +32,6 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import org.apache.logging.log4j.*;
 
@@ -48,7 +47,7 @@ public class Main {
         */
 
     private static final Logger log = LogManager.getLogger(Main.class);
-    private static final String CRAWL_PATTERN = ".*\\.(jar|zip|war|ear|rar|tar.gz)";
+    private static final String CRAWL_PATTERN = ".*\\.(jar|zip|war|ear|rar|tar.gz|tgz|tar.bz2|tar.xz)";
 
     private final Reports reports;
     private final Licenses licenses;
@@ -60,6 +59,9 @@ public class Main {
     private final IOSystem ioSystem;
     private final TentaclesResources tentaclesResources;
     private final Templates templates;
+    private final ContentStore contentStore;
+    private final Unpacker unpacker;
+    private final FileMirror fileMirror;
 
     public Main(final String... args) throws Exception {
         this(new Configuration(args), Platform.aPlatform());
@@ -80,6 +82,10 @@ public class Main {
         this.ioSystem = platform.getIoSystem();
         this.tentaclesResources = platform.getTentaclesResources();
         this.templates = templates;
+        this.contentStore = layout.getStoreDirectory() == null
+                ? null : new ContentStore(platform, layout.getStoreDirectory());
+        this.unpacker = new Unpacker(platform, layout, this.contentStore);
+        this.fileMirror = new FileMirror(platform, configuration.getMirror(), this.contentStore);
 
         this.reports = new Reports();
 
@@ -107,16 +113,29 @@ public class Main {
 
     private void main() throws Exception {
 
-        unpackContents(mirrorRepositoryFrom(this.configuration));
+        if (this.configuration.isStreaming() && HTTP.isRepositoryFor(this.configuration)) {
 
-        reportOn(archivesIn(this.layout.getRepositoryDirectory()));
+            reportOn(archivesOf(scanRepositoryFrom(this.configuration)));
+
+        } else {
+
+            unpackContents(mirrorRepositoryFrom(this.configuration));
+
+            reportOn(archivesIn(this.layout.getRepositoryDirectory()));
+        }
     }
 
     private List<Archive> archivesIn(final File repository) {
-        final List<File> jars = this.fileSystem.documentsFrom(repository);
+        return archivesOf(this.fileSystem.documentsFrom(repository));
+    }
 
+    private List<Archive> archivesOf(final Collection<File> jars) {
         final List<Archive> archives = new ArrayList<>();
         for (final File file : jars) {
+            // skips the mirror manifest and unfinished downloads
+            if (!file.getName().matches(CRAWL_PATTERN)) {
+                continue;
+            }
             final Archive archive =
                     new Archive(file, this.fileSystem, this.layout);
             archives.add(archive);
@@ -154,8 +173,7 @@ public class Main {
         final Map<License, License> licenses = new HashMap<>();
 
         for (final Archive archive : archives) {
-            final List<File> files =
-                    this.fileSystem.licensesFrom(archive.contentsDirectory());
+            final List<File> files = archive.getLegalDocuments().getLicenses();
             for (final File file : files) {
                 final License license = this.licenses.from(file);
 
@@ -203,8 +221,7 @@ public class Main {
         final Set<License> undeclared =
                 new HashSet<>(archive.getLicenses());
 
-        final File contents = archive.contentsDirectory();
-        final List<File> files = this.fileSystem.licensesDeclaredIn(contents);
+        final List<File> files = archive.getLegalDocuments().getDeclaredLicenses();
 
         for (final File file : files) {
 
@@ -237,9 +254,8 @@ public class Main {
             final Set<Notice> undeclared =
                     new HashSet<>(archive.getNotices());
 
-            final File contents = archive.contentsDirectory();
             final List<File> files =
-                    this.fileSystem.noticesDeclaredIn(contents);
+                    archive.getLegalDocuments().getDeclaredNotices();
 
             for (final File file : files) {
 
@@ -278,7 +294,7 @@ public class Main {
 
         for (final Archive archive : archives) {
             final List<File> noticeDocuments =
-                    this.fileSystem.noticesOnly(archive.contentsDirectory());
+                    archive.getLegalDocuments().getNotices();
             for (final File file : noticeDocuments) {
                 final Notice notice = new Notice(this.ioSystem.slurp(file));
 
@@ -303,8 +319,48 @@ public class Main {
     }
 
     private void unpackContents(final Set<File> files) throws IOException {
-        for (final File file : files) {
-            unpack(file);
+        this.unpacker.unpack(files);
+
+        if (!this.unpacker.getTruncated().isEmpty()) {
+            log.warn("Truncated {} of {} archives, see the warnings above",
+                    this.unpacker.getTruncated().size(), files.size());
+        }
+    }
+
+    /**
+     * Scans the archives of a remote repository straight from the
+     * download, only their legal documents end up on disk.
+     *
+     * @return where each archive would have been mirrored to
+     */
+    private Set<File> scanRepositoryFrom(final Configuration configuration)
+            throws IOException {
+        final NexusClient client = new NexusClient(this.platform);
+        final Set<URI> resources =
+                client.crawl(configuration.getStagingRepositoryURI(),
+                        PathRules.of(configuration));
+
+        final List<URI> archives = archivesIn(resources);
+        client.stream(archives, resources,
+                (uri, content) -> scan(content, mirroredFrom(uri)));
+
+        final Set<File> files = new LinkedHashSet<>();
+        for (final URI uri : archives) {
+            files.add(mirroredFrom(uri));
+        }
+        return files;
+    }
+
+    /**
+     * A broken archive fails only its own scan. The client still reads the
+     * rest of it against the published checksum, so transport and checksum
+     * failures fail the run.
+     */
+    private void scan(final InputStream content, final File archive) {
+        try {
+            this.unpacker.scan(content, archive);
+        } catch (final IOException | RuntimeException e) {
+            log.error("Cannot unpack {}", archive, e);
         }
     }
 
@@ -312,82 +368,41 @@ public class Main {
             throws IOException {
         final Set<File> files = new HashSet<>();
         if (HTTP.isRepositoryFor(configuration)) {
-            final NexusClient client = new NexusClient(this.platform);
+            final NexusClient client = new NexusClient(this.platform,
+                    MirrorManifest.load(this.layout), this.contentStore);
             final Set<URI> resources =
-                    client.crawl(configuration.getStagingRepositoryURI());
+                    client.crawl(configuration.getStagingRepositoryURI(),
+                            PathRules.of(configuration));
 
-            for (final URI uri : resources) {
-                if (!uri.getPath().matches(CRAWL_PATTERN)) {
-                    continue;
-                }
-                files.add(client.download(uri, mirroredFrom(uri)));
-            }
+            final List<URI> archives = archivesIn(resources);
+            files.addAll(client.download(archives, resources, this::mirroredFrom));
+
+            final RetryPolicy retryPolicy = client.getRetryPolicy();
+            log.info("Mirrored {} archives ({} retries, {} timeouts, {} rejected)",
+                    files.size(), retryPolicy.getRetries(),
+                    retryPolicy.getTimeouts(), retryPolicy.getRejected());
         } else if (LOCAL_FILE_SYSTEM.isRepositoryFor(configuration)) {
             final File file = new File(configuration.getStagingRepositoryURI());
             final List<File> collect =
                     this.platform.getFileSystem().archivesInPath(file,
-                            configuration.getFileRepositoryPathNameFilter());
+                            configuration.getFileRepositoryPathNameFilter(),
+                            PathRules.of(configuration));
 
             for (final File f : collect) {
-                files.add(copyToMirror(f));
+                files.add(this.fileMirror.mirror(f, mirroredFrom(f.toURI())));
             }
         }
         return files;
     }
 
-    private void unpack(final File archive) {
-        log.info("Unpack {}", archive);
-
-        try {
-            final ZipInputStream zip = this.ioSystem.unzip(archive);
-
-            final File contents =
-                    new Archive(archive, this.fileSystem, this.layout)
-                            .contentsDirectory();
-
-            try {
-                ZipEntry entry = null;
-
-                while ((entry = zip.getNextEntry()) != null) {
-
-                    if (entry.isDirectory()) {
-                        continue;
-                    }
-
-                    final String path = entry.getName();
-
-                    final File fileEntry = new File(contents, path);
-
-                    this.fileSystem.mkparent(fileEntry);
-
-                    // Open the output file
-
-                    this.ioSystem.copy(zip, fileEntry);
-
-                    if (fileEntry.getName().endsWith(".jar")) {
-                        unpack(fileEntry);
-                    }
-                }
-            } finally {
-                this.ioSystem.close(zip);
+    private List<URI> archivesIn(final Set<URI> resources) {
+        final List<URI> archives = new ArrayList<>();
+        for (final URI uri : resources) {
+            if (uri.getPath().matches(CRAWL_PATTERN)) {
+                archives.add(uri);
             }
-        } catch (final IOException e) {
-            log.error("Not a zip {}", archive);
         }
-    }
-
-    private File copyToMirror(final File src) throws IOException {
-        final URI uri = src.toURI();
-
-        final File file = mirroredFrom(uri);
-
-        log.info("Copy {}", uri);
-
-        this.fileSystem.mkparent(file);
-
-        this.ioSystem.copy(this.ioSystem.read(src), file);
-
-        return file;
+        return archives;
     }
 
     private File mirroredFrom(final URI uri) {
@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Remembers the validators (ETag, Last-Modified and length) and the
+ * digests of every resource mirrored from a remote repository, so that
+ * later runs can tell whether a resource changed without downloading it
+ * again.
+ */
+public class MirrorManifest {
+
+    private static final String FILE_NAME = ".tentacles-mirror.json";
+
+    private final File file;
+    private final ObjectMapper mapper;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a manifest that is only kept in memory.
+     */
+    public MirrorManifest() {
+        this(null);
+    }
+
+    private MirrorManifest(final File file) {
+        this.file = file;
+        this.mapper = new ObjectMapper()
+                .setDefaultPropertyInclusion(JsonInclude.Include.NON_NULL)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    /**
+     * Loads the manifest of the repository directory of the given layout,
+     * starting with an empty one on the first run.
+     */
+    public static MirrorManifest load(final Layout layout) throws IOException {
+        final MirrorManifest manifest =
+                new MirrorManifest(new File(layout.getRepositoryDirectory(), FILE_NAME));
+
+        if (manifest.file.isFile()) {
+            final Map<String, Entry> entries = manifest.mapper.readValue(manifest.file,
+                    new TypeReference<Map<String, Entry>>() {
+                    });
+            manifest.entries.putAll(entries);
+        }
+        return manifest;
+    }
+
+    public Entry get(final URI uri) {
+        return this.entries.get(uri.toString());
+    }
+
+    public void put(final URI uri, final Entry entry) {
+        this.entries.put(uri.toString(), entry);
+    }
+
+    public void remove(final URI uri) {
+        this.entries.remove(uri.toString());
+    }
+
+    /**
+     * Writes the manifest next to the mirrored files. The previous manifest
+     * is only replaced once the new one was written completely.
+     */
+    public void save() throws IOException {
+        if (this.file == null) {
+            return;
+        }
+
+        final File tmp = new File(this.file.getPath() + ".tmp");
+        this.mapper.writerWithDefaultPrettyPrinter().writeValue(tmp,
+                new TreeMap<>(this.entries));
+        Files.move(tmp.toPath(), this.file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Records the validators of a download next to its {@code .part} file
+     * before the first byte is written, so that they survive a run that is
+     * killed before the manifest is saved.
+     */
+    public void savePart(final File part, final Entry entry) throws IOException {
+        this.mapper.writeValue(validatorsOf(part), entry);
+    }
+
+    /**
+     * @return the validators recorded when the part was started, or null if
+     *         there are none
+     */
+    public Entry loadPart(final File part) {
+        final File validators = validatorsOf(part);
+        if (!validators.isFile()) {
+            return null;
+        }
+        try {
+            return this.mapper.readValue(validators, Entry.class);
+        } catch (final IOException e) {
+            // written by a run killed in the middle of it
+            return null;
+        }
+    }
+
+    public void deletePart(final File part) throws IOException {
+        Files.deleteIfExists(validatorsOf(part).toPath());
+    }
+
+    private static File validatorsOf(final File part) {
+        return new File(part.getPath() + ".json");
+    }
+
+    public static class Entry {
+
+        private String etag;
+        private String lastModified;
+        private long length;
+        private Map<String, String> digests;
+
+        /**
+         * Required for Jackson
+         */
+        public Entry() {
+        }
+
+        public Entry(final String etag, final String lastModified, final long length) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        public String getEtag() {
+            return this.etag;
+        }
+
+        public void setEtag(final String etag) {
+            this.etag = etag;
+        }
+
+        public String getLastModified() {
+            return this.lastModified;
+        }
+
+        public void setLastModified(final String lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        public long getLength() {
+            return this.length;
+        }
+
+        public void setLength(final long length) {
+            this.length = length;
+        }
+
+        public Map<String, String> getDigests() {
+            return this.digests;
+        }
+
+        public void setDigests(final Map<String, String> digests) {
+            this.digests = digests;
+        }
+
+        /**
+         * @return the hex digest of the mirrored file, or null if it is unknown
+         */
+        public String digest(final ChecksumType type) {
+            return this.digests == null ? null : this.digests.get(type.getExtension());
+        }
+
+        public void putDigest(final ChecksumType type, final String hex) {
+            if (this.digests == null) {
+                this.digests = new TreeMap<>();
+            }
+            this.digests.put(type.getExtension(), hex);
+        }
+
+        /**
+         * @return true if the server can be asked whether the resource changed
+         */
+        public boolean hasValidators() {
+            return this.etag != null || this.lastModified != null;
+        }
+    }
+}
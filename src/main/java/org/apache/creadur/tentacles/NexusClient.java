@@ -18,159 +18,1006 @@ package org.apache.creadur.tentacles;
 
 import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.logging.log4j.*;
 import org.codehaus.swizzle.stream.StreamLexer;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class NexusClient {
 
     private static final Logger log = LogManager.getLogger(NexusClient.class);
     private static final String SLASH = "/";
     private static final String ONE_UP = "../";
+    private static final Pattern NEXUS3_REPOSITORY = Pattern.compile("(.*/)repository/([^/]+)/?");
+    private static final ObjectMapper JSON = new ObjectMapper();
     private static final String USER_AGENT_CONTENTS = "Mozilla/5.0 (X11; U; Linux x86_64; en-US; rv:1.9.2.13) Gecko/20101206 Ubuntu/10.10 (maverick) Firefox/3.6.13";
 
     private final CloseableHttpClient client;
     private final FileSystem fileSystem;
     private final IOSystem ioSystem;
-    private final int retries;
+    private final MirrorManifest manifest;
+    private final ContentStore contentStore;
+    private final RetryPolicy retryPolicy;
+    private final int crawlThreads;
+    private final int downloadThreads;
+    private final int segments;
+    private final long segmentThreshold;
+    private final String listing;
 
     public NexusClient(final Platform platform) {
+        this(platform, new MirrorManifest());
+    }
 
-        System.setProperty("http.keepAlive", "false");
-        System.setProperty("http.maxConnections", "50");
-
-        this.retries = Integer.parseInt(System.getProperty("NexusClient.retries", "5"));
+    public NexusClient(final Platform platform, final MirrorManifest manifest) {
+        this(platform, manifest, null);
+    }
 
+    /**
+     * @param contentStore shares downloads with other runs, may be null
+     */
+    public NexusClient(final Platform platform, final MirrorManifest manifest,
+            final ContentStore contentStore) {
+
+        this.retryPolicy = new RetryPolicy();
+        this.crawlThreads = Integer.parseInt(System.getProperty("NexusClient.crawlThreads", "1"));
+        this.downloadThreads = Integer.parseInt(System.getProperty("NexusClient.downloadThreads", "1"));
+        this.segments = Integer.parseInt(System.getProperty("NexusClient.segments", "1"));
+        this.segmentThreshold = Long.parseLong(System.getProperty("NexusClient.segmentThreshold", "67108864"));
+        this.listing = System.getProperty("NexusClient.listing", "auto");
+        final int maxConnectionsPerHost = Integer.parseInt(System.getProperty("NexusClient.maxConnectionsPerHost", "8"));
+        final int connectTimeout = Integer.parseInt(System.getProperty("NexusClient.connectTimeout", "10000"));
+        final int socketTimeout = Integer.parseInt(System.getProperty("NexusClient.socketTimeout", "60000"));
+
+        // connections are kept alive and shared by the crawl and download threads,
+        // the per host limit is what bounds the load put on the repository
+        final PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setDefaultMaxPerRoute(maxConnectionsPerHost);
+        connections.setMaxTotal(Math.max(50, maxConnectionsPerHost));
+
+        // retries are left to the RetryPolicy alone
         this.client = HttpClientBuilder.create().disableContentCompression()
+                .disableAutomaticRetries()
+                .setConnectionManager(connections)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setSocketTimeout(socketTimeout)
+                        .build())
                 .build();
         this.fileSystem = platform.getFileSystem();
         this.ioSystem = platform.getIoSystem();
+        this.manifest = manifest;
+        this.contentStore = contentStore;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return this.retryPolicy;
+    }
+
+    public Set<File> download(final Collection<URI> uris,
+            final Function<URI, File> mirror) throws IOException {
+        return download(uris, Collections.<URI> emptySet(), mirror);
+    }
+
+    /**
+     * Downloads all given resources, running up to
+     * {@code NexusClient.downloadThreads} downloads at the same time. Every
+     * resource that has a checksum sidecar among the given ones is verified
+     * against it while it is downloaded, and is not downloaded at all if the
+     * mirrored file already matches it. With a content store, a resource
+     * whose checksum the store already holds is linked from it instead of
+     * being downloaded, and every mirrored resource is added to the store.
+     *
+     * @param uris the resources to download
+     * @param sidecars the checksum files published by the repository
+     * @param mirror maps each resource to the local file it is stored in
+     * @return the local files, in the order of the given resources
+     * @throws IOException the first failure of any download
+     */
+    public Set<File> download(final Collection<URI> uris, final Set<URI> sidecars,
+            final Function<URI, File> mirror) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(this.downloadThreads);
+        try {
+            final List<Future<File>> downloads = new ArrayList<>();
+            for (final URI uri : uris) {
+                final File file = mirror.apply(uri);
+                final URI sidecar = ChecksumType.sidecarIn(uri, sidecars);
+                downloads.add(executor.submit(() -> mirror(uri, file, checksum(sidecar))));
+            }
+
+            final Set<File> files = new LinkedHashSet<>();
+            for (final Future<File> download : downloads) {
+                files.add(await(download));
+            }
+            return files;
+        } finally {
+            executor.shutdownNow();
+            this.manifest.save();
+        }
+    }
+
+    /**
+     * Reads a resource from the repository.
+     */
+    public interface ResourceHandler {
+        void handle(URI uri, InputStream content) throws IOException;
+    }
+
+    /**
+     * Hands every given resource to the handler as it is downloaded,
+     * without writing it to disk, running up to
+     * {@code NexusClient.downloadThreads} at the same time. A resource that
+     * has a checksum sidecar among the given ones is verified against it
+     * once the handler is done with it.
+     *
+     * @throws IOException the first failure of any resource
+     */
+    public void stream(final Collection<URI> uris, final Set<URI> sidecars,
+            final ResourceHandler handler) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(this.downloadThreads);
+        try {
+            final List<Future<URI>> streams = new ArrayList<>();
+            for (final URI uri : uris) {
+                final URI sidecar = ChecksumType.sidecarIn(uri, sidecars);
+                streams.add(executor.submit(() -> stream(uri, checksum(sidecar), handler)));
+            }
+
+            for (final Future<URI> stream : streams) {
+                await(stream);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private URI stream(final URI uri, final Checksum checksum,
+            final ResourceHandler handler) throws IOException {
+        log.info("Stream {}", uri);
+
+        try (CloseableHttpResponse response = get(uri); InputStream content = response.getEntity().getContent()) {
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                throw new IOException("Cannot stream " + uri + " (" + response.getStatusLine() + ")");
+            }
+
+            if (checksum == null) {
+                handler.handle(uri, content);
+                return uri;
+            }
+
+            final MessageDigest digest = checksum.getType().newDigest();
+            final InputStream digested = new DigestInputStream(content, digest);
+            handler.handle(uri, digested);
+
+            // the handler may not need the whole resource, the checksum does
+            this.ioSystem.drain(digested);
+
+            final String actual = Checksum.toHex(digest);
+            if (!checksum.matches(actual)) {
+                throw new IOException("Checksum mismatch for " + uri + ", expected "
+                        + checksum + " but streamed " + actual);
+            }
+        }
+        return uri;
+    }
+
+    private static <T> T await(final Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
     }
 
     public File download(final URI uri, final File file) throws IOException {
+        return mirror(uri, file, null);
+    }
+
+    private File mirror(final URI uri, final File file,
+            final Checksum checksum) throws IOException {
+        if (this.contentStore == null) {
+            return download(uri, file, checksum);
+        }
+
+        if (checksum != null && checksum.getType().identifiesContents()
+                && this.contentStore.fetch(checksum, file)) {
+            log.info("Shared {}", uri);
+            Files.deleteIfExists(partOf(file).toPath());
+            this.manifest.deletePart(partOf(file));
+
+            final MirrorManifest.Entry entry = new MirrorManifest.Entry(null, null, file.length());
+            entry.putDigest(checksum.getType(), checksum.getValue());
+            this.manifest.put(uri, entry);
+            return file;
+        }
+
+        download(uri, file, checksum);
+        this.contentStore.put(checksumOf(uri, file), file);
+        return file;
+    }
+
+    /**
+     * @return the strongest digest recorded for the mirrored file that
+     *         identifies its contents, which is computed if none was
+     */
+    private Checksum checksumOf(final URI uri, final File file) throws IOException {
+        final MirrorManifest.Entry mirrored = this.manifest.get(uri);
+        final MirrorManifest.Entry entry = mirrored == null
+                ? new MirrorManifest.Entry(null, null, file.length()) : mirrored;
+
+        for (final ChecksumType type : ChecksumType.values()) {
+            if (type.identifiesContents() && entry.digest(type) != null) {
+                return new Checksum(type, entry.digest(type));
+            }
+        }
+
+        final MessageDigest digest = ChecksumType.SHA1.newDigest();
+        this.ioSystem.digest(file, digest);
+        final String actual = Checksum.toHex(digest);
+        entry.putDigest(ChecksumType.SHA1, actual);
+        this.manifest.put(uri, entry);
+        return new Checksum(ChecksumType.SHA1, actual);
+    }
+
+    private File download(final URI uri, final File file,
+            final Checksum checksum) throws IOException {
+        final File part = partOf(file);
+        if (part.exists()) {
+            log.info("Resume {}", uri);
+            return resume(uri, file, part, checksum);
+        }
+
         if (file.exists()) {
 
-            final long length = getContentLength(uri);
+            final MirrorManifest.Entry mirrored = this.manifest.get(uri);
 
-            if (file.length() == length) {
-                log.info("Exists {}", uri);
-                return file;
+            if (checksum != null) {
+                if (isVerified(uri, file, mirrored, checksum)) {
+                    log.info("Exists {}", uri);
+                    return file;
+                }
+                log.info("Changed {}", uri);
+            } else if (mirrored != null && mirrored.hasValidators()
+                    && file.length() == mirrored.getLength()) {
+                return revalidate(uri, file, mirrored);
             } else {
-                log.info("Incomplete {}", uri);
+                try (CloseableHttpResponse head = head(uri)) {
+                    final MirrorManifest.Entry remote = entryOf(head);
+
+                    if (file.length() == remote.getLength()) {
+                        log.info("Exists {}", uri);
+                        this.manifest.put(uri, remote);
+                        return file;
+                    }
+
+                    // nothing tells a truncated file from an older version
+                    log.info("Changed {}", uri);
+                }
             }
         }
 
         log.info("Download {}", uri);
 
-        try (CloseableHttpResponse response = get(uri); InputStream content = response.getEntity().getContent()) {
+        try (CloseableHttpResponse response = get(uri)) {
+            store(uri, response, file, checksum);
+        }
+
+        return file;
+    }
+
+    /**
+     * Compares the mirrored file with the published checksum, using the
+     * digest recorded when the file was downloaded if there is one and
+     * reading the file only if there is not.
+     */
+    private boolean isVerified(final URI uri, final File file,
+            final MirrorManifest.Entry mirrored, final Checksum checksum)
+            throws IOException {
+        final ChecksumType type = checksum.getType();
+
+        if (mirrored != null && mirrored.getLength() == file.length()
+                && mirrored.digest(type) != null) {
+            return checksum.matches(mirrored.digest(type));
+        }
+
+        final MessageDigest digest = type.newDigest();
+        this.ioSystem.digest(file, digest);
+        final String actual = Checksum.toHex(digest);
 
-            this.fileSystem.mkparent(file);
+        if (!checksum.matches(actual)) {
+            return false;
+        }
+
+        final MirrorManifest.Entry entry = mirrored == null
+                ? new MirrorManifest.Entry(null, null, file.length()) : mirrored;
+        entry.setLength(file.length());
+        entry.putDigest(type, actual);
+        this.manifest.put(uri, entry);
+        return true;
+    }
 
-            this.ioSystem.copy(content, file);
+    /**
+     * @return the checksum published by the given sidecar, or null if there
+     *         is no sidecar or it holds no usable digest
+     */
+    private Checksum checksum(final URI sidecar) throws IOException {
+        if (sidecar == null) {
+            return null;
+        }
+
+        final String text;
+        try (CloseableHttpResponse response = get(sidecar); InputStream content = response.getEntity().getContent()) {
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                log.warn("No checksum {} ({})", sidecar, response.getStatusLine());
+                return null;
+            }
+            text = new String(this.ioSystem.read(content), StandardCharsets.US_ASCII);
+        }
+
+        final Checksum checksum = Checksum.parse(ChecksumType.of(sidecar), text);
+        if (checksum == null) {
+            log.warn("Unreadable checksum {}", sidecar);
+        }
+        return checksum;
+    }
+
+    /**
+     * Asks the server whether the mirrored resource changed, a 304 costs
+     * one small round trip while a changed resource is downloaded with the
+     * same request.
+     */
+    private File revalidate(final URI uri, final File file,
+            final MirrorManifest.Entry mirrored) throws IOException {
+        final HttpGet request = new HttpGet(uri);
+        if (mirrored.getEtag() != null) {
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, mirrored.getEtag());
+        }
+        if (mirrored.getLastModified() != null) {
+            request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, mirrored.getLastModified());
+        }
+
+        try (CloseableHttpResponse response = get(request)) {
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                log.info("Exists {}", uri);
+                return file;
+            }
+
+            log.info("Changed {}", uri);
+            store(uri, response, file, null);
         }
 
         return file;
     }
 
-    private Long getContentLength(final URI uri) throws IOException {
-        final CloseableHttpResponse head = head(uri);
-        final Header[] headers = head.getHeaders(HttpHeaders.CONTENT_LENGTH);
+    /**
+     * Writes the body of the response to a {@code .part} file that only
+     * replaces the mirrored file once it is complete and verified. The
+     * validators of the response are written next to the part before its
+     * body, so that a download interrupted even by killing the run can
+     * later be resumed where it stopped.
+     */
+    private void store(final URI uri, final CloseableHttpResponse response,
+            final File file, final Checksum checksum) throws IOException {
+        if (!isSuccess(response)) {
+            throw new IOException("Cannot download " + uri + " (" + response.getStatusLine() + ")");
+        }
 
-        if (headers != null && headers.length >= 1) {
-            return Long.valueOf(headers[0].getValue());
+        final MirrorManifest.Entry entry = entryOf(response);
+        this.manifest.put(uri, entry);
+
+        this.fileSystem.mkparent(file);
+
+        if (this.segments > 1 && entry.getLength() >= this.segmentThreshold
+                && acceptsRanges(response)) {
+            // gives the connection back before the segments ask for theirs
+            response.close();
+            storeSegmented(uri, file, entry, checksum);
+            return;
+        }
+
+        final File part = partOf(file);
+        final MessageDigest[] digests = digestsFor(checksum);
+
+        if (ifRange(entry) != null) {
+            this.manifest.savePart(part, entry);
+        }
+        try (InputStream content = response.getEntity().getContent()) {
+            this.ioSystem.copy(content, part, digests);
+        }
+
+        complete(uri, part, file, entry, checksum, digests);
+    }
+
+    /**
+     * Asks for the missing tail of a partial download. The {@code If-Range}
+     * header, with the validators recorded when the part was started, makes
+     * the server send the whole resource instead if it changed since. A part
+     * without such validators cannot be told from a changed resource, and
+     * is downloaded again.
+     */
+    private File resume(final URI uri, final File file, final File part,
+            final Checksum checksum) throws IOException {
+        final MirrorManifest.Entry started = this.manifest.loadPart(part);
+        final String validator = ifRange(started);
+        if (validator == null) {
+            log.info("Unknown part of {}", uri);
+            return restart(uri, file, part, checksum);
+        }
+
+        final long offset = part.length();
+
+        final HttpGet request = new HttpGet(uri);
+        request.setHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+        request.setHeader(HttpHeaders.IF_RANGE, validator);
+
+        try (CloseableHttpResponse response = get(request)) {
+            final int status = response.getStatusLine().getStatusCode();
+
+            if (status == HttpStatus.SC_PARTIAL_CONTENT && rangeStartOf(response) == offset) {
+                final MirrorManifest.Entry entry = started;
+                entry.setLength(rangeTotalOf(response));
+
+                final MessageDigest[] digests = digestsFor(checksum);
+                this.ioSystem.digest(part, digests);
+
+                try (InputStream content = response.getEntity().getContent()) {
+                    this.ioSystem.append(content, part, digests);
+                }
+
+                complete(uri, part, file, entry, checksum, digests);
+                return file;
+            }
+
+            if (status == HttpStatus.SC_OK) {
+                log.info("Download {}", uri);
+                store(uri, response, file, checksum);
+                return file;
+            }
         }
 
-        head.close();
+        // the part is of no use, for example because it is already longer than the resource
+        return restart(uri, file, part, checksum);
+    }
+
+    private File restart(final URI uri, final File file, final File part,
+            final Checksum checksum) throws IOException {
+        Files.deleteIfExists(part.toPath());
+        this.manifest.deletePart(part);
 
-        return (long) -1;
+        log.info("Download {}", uri);
+
+        try (CloseableHttpResponse response = get(uri)) {
+            store(uri, response, file, checksum);
+        }
+        return file;
+    }
+
+    /**
+     * Validates a finished download against the expected length and
+     * checksum, and moves it to its final place.
+     */
+    private void complete(final URI uri, final File part, final File file,
+            final MirrorManifest.Entry entry, final Checksum checksum,
+            final MessageDigest... digests) throws IOException {
+        if (entry.getLength() >= 0 && part.length() != entry.getLength()) {
+            throw new IOException("Incomplete download of " + uri + ", expected "
+                    + entry.getLength() + " bytes but got " + part.length());
+        }
+
+        for (final MessageDigest digest : digests) {
+            final ChecksumType type = ChecksumType.of(digest);
+            final String actual = Checksum.toHex(digest);
+            if (checksum != null && checksum.getType() == type && !checksum.matches(actual)) {
+                Files.deleteIfExists(part.toPath());
+                this.manifest.remove(uri);
+                throw new IOException("Checksum mismatch for " + uri + ", expected "
+                        + checksum + " but downloaded " + actual);
+            }
+            entry.putDigest(type, actual);
+        }
+
+        Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        this.manifest.deletePart(part);
+        entry.setLength(file.length());
+        this.manifest.put(uri, entry);
+    }
+
+    /**
+     * Fetches a large resource as {@code NexusClient.segments} ranges at
+     * the same time. The segments are written straight to their offsets,
+     * so unlike a sequential download the checksum needs a second read of
+     * the file, and an interrupted segmented download starts over.
+     */
+    private void storeSegmented(final URI uri, final File file,
+            final MirrorManifest.Entry entry, final Checksum checksum)
+            throws IOException {
+        log.info("Download {} in {} segments", uri, this.segments);
+
+        final File segmented = new File(file.getPath() + ".segments");
+        final long length = entry.getLength();
+        final long size = (length + this.segments - 1) / this.segments;
+        final String validator = ifRange(entry);
+
+        try (RandomAccessFile allocate = new RandomAccessFile(segmented, "rw")) {
+            allocate.setLength(length);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(this.segments);
+        try {
+            final List<Future<Long>> ranges = new ArrayList<>();
+            for (long from = 0; from < length; from += size) {
+                final long start = from;
+                final long end = Math.min(length, from + size) - 1;
+                ranges.add(executor.submit(() -> segment(uri, segmented, start, end, validator)));
+            }
+            for (final Future<Long> range : ranges) {
+                await(range);
+            }
+
+            final MessageDigest[] digests = digestsFor(checksum);
+            this.ioSystem.digest(segmented, digests);
+            complete(uri, segmented, file, entry, checksum, digests);
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(segmented.toPath());
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long segment(final URI uri, final File file, final long start,
+            final long end, final String validator) throws IOException {
+        final HttpGet request = new HttpGet(uri);
+        request.setHeader(HttpHeaders.RANGE, "bytes=" + start + "-" + end);
+        if (validator != null) {
+            request.setHeader(HttpHeaders.IF_RANGE, validator);
+        }
+
+        try (CloseableHttpResponse response = get(request)) {
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT
+                    || rangeStartOf(response) != start) {
+                throw new IOException("Range " + start + "-" + end + " of " + uri
+                        + " not served (" + response.getStatusLine() + ")");
+            }
+
+            final long written;
+            try (InputStream content = response.getEntity().getContent()) {
+                written = this.ioSystem.write(content, file, start);
+            }
+            if (written != end - start + 1) {
+                throw new IOException("Incomplete range " + start + "-" + end + " of " + uri);
+            }
+            return written;
+        }
+    }
+
+    /**
+     * @return the digest verifying the checksum, and the SHA-1 the content
+     *         store is keyed on if the checksum does not identify the contents
+     */
+    private MessageDigest[] digestsFor(final Checksum checksum) {
+        final List<MessageDigest> digests = new ArrayList<>();
+        if (checksum != null) {
+            digests.add(checksum.getType().newDigest());
+        }
+        if (this.contentStore != null
+                && (checksum == null || !checksum.getType().identifiesContents())) {
+            digests.add(ChecksumType.SHA1.newDigest());
+        }
+        return digests.toArray(new MessageDigest[digests.size()]);
+    }
+
+    private static File partOf(final File file) {
+        return new File(file.getPath() + ".part");
+    }
+
+    private static boolean isSuccess(final HttpResponse response) {
+        final int status = response.getStatusLine().getStatusCode();
+        return status >= 200 && status < 300;
+    }
+
+    private static boolean acceptsRanges(final HttpResponse response) {
+        final String ranges = header(response, HttpHeaders.ACCEPT_RANGES);
+        return ranges != null && ranges.contains("bytes");
+    }
+
+    /**
+     * @return the validator for an {@code If-Range} header, which must not
+     *         be a weak ETag
+     */
+    private static String ifRange(final MirrorManifest.Entry entry) {
+        if (entry == null) {
+            return null;
+        }
+        if (entry.getEtag() != null && !entry.getEtag().startsWith("W/")) {
+            return entry.getEtag();
+        }
+        return entry.getLastModified();
+    }
+
+    /**
+     * @return the first byte of a {@code Content-Range: bytes 100-199/1000}
+     *         header, or -1 if there is none
+     */
+    private static long rangeStartOf(final HttpResponse response) {
+        final String range = header(response, HttpHeaders.CONTENT_RANGE);
+        if (range == null || !range.startsWith("bytes ") || range.indexOf('-') < 0) {
+            return -1;
+        }
+        return Long.parseLong(range.substring("bytes ".length(), range.indexOf('-')).trim());
+    }
+
+    /**
+     * @return the complete length of a {@code Content-Range} header, or -1
+     *         if the server does not know it
+     */
+    private static long rangeTotalOf(final HttpResponse response) {
+        final String range = header(response, HttpHeaders.CONTENT_RANGE);
+        final String total = range == null ? "*" : range.substring(range.indexOf('/') + 1).trim();
+        return "*".equals(total) ? -1 : Long.parseLong(total);
+    }
+
+    private static MirrorManifest.Entry entryOf(final HttpResponse response) {
+        return new MirrorManifest.Entry(header(response, HttpHeaders.ETAG),
+                header(response, HttpHeaders.LAST_MODIFIED),
+                contentLength(response));
+    }
+
+    private static long contentLength(final HttpResponse response) {
+        final String length = header(response, HttpHeaders.CONTENT_LENGTH);
+        return length == null ? -1 : Long.parseLong(length);
+    }
+
+    private static String header(final HttpResponse response, final String name) {
+        final Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
     }
 
     private CloseableHttpResponse get(final URI uri) throws IOException {
-        return get(new HttpGet(uri), this.retries);
+        return get(new HttpGet(uri));
     }
 
     private CloseableHttpResponse head(final URI uri) throws IOException {
-        return get(new HttpHead(uri), this.retries);
+        return get(new HttpHead(uri));
     }
 
-    private CloseableHttpResponse get(final HttpUriRequest request, int tries) throws IOException {
-        try {
-            request.setHeader(HttpHeaders.USER_AGENT, USER_AGENT_CONTENTS);
-            return this.client.execute(request);
-        } catch (final IOException e) {
-            if (tries > 0) {
-                try {
-                    Thread.sleep(250);
-                } catch (final InterruptedException ie) {
-                    Thread.interrupted();
-                    throw new IOException("Interrupted", ie);
+    /**
+     * Sends the request, retrying it as the {@link RetryPolicy} allows.
+     *
+     * @throws IOException if the response is still a temporary failure when
+     *             the retries are used up
+     */
+    private CloseableHttpResponse get(final HttpUriRequest request) throws IOException {
+        request.setHeader(HttpHeaders.USER_AGENT, USER_AGENT_CONTENTS);
+        final long deadline = this.retryPolicy.newDeadline();
+
+        for (int attempt = 0;; attempt++) {
+            this.retryPolicy.admit(request);
+
+            final CloseableHttpResponse response;
+            try {
+                response = this.client.execute(request);
+            } catch (final IOException e) {
+                this.retryPolicy.failed(request, e);
+                if (!this.retryPolicy.mayRetry(request, e, attempt, deadline)) {
+                    throw e;
                 }
-                return get(request, tries--);
-            } else {
-                throw e;
+                log.warn("Retry {} ({})", request.getURI(), e.toString());
+                this.retryPolicy.pause(attempt, null);
+                continue;
+            }
+
+            if (!this.retryPolicy.isRetriable(response)) {
+                this.retryPolicy.succeeded(request);
+                return response;
             }
+
+            this.retryPolicy.failed(request);
+            if (!this.retryPolicy.mayRetry(request, attempt, deadline)) {
+                response.close();
+                throw new IOException("Gave up on " + request.getURI() + " ("
+                        + response.getStatusLine() + ")");
+            }
+            log.warn("Retry {} ({})", request.getURI(), response.getStatusLine());
+            response.close();
+            this.retryPolicy.pause(attempt, response);
         }
     }
 
     public Set<URI> crawl(final URI index) throws IOException {
-        log.info("Crawl {}", index);
-        final Set<URI> resources = new LinkedHashSet<>();
+        return crawl(index, PathRules.NONE);
+    }
 
-        final CloseableHttpResponse response = get(index);
+    /**
+     * Lists all resources below the given index, with the backend chosen by
+     * the {@code NexusClient.listing} system property:
+     * <ul>
+     * <li>{@code html} crawls the index pages of the repository</li>
+     * <li>{@code assets} asks the assets API of Nexus 3 for the repository,
+     * a few paginated requests instead of one request per directory</li>
+     * <li>{@code auto}, the default, uses the assets API for Nexus 3
+     * repository URLs and falls back to the index pages if it fails</li>
+     * </ul>
+     *
+     * @param rules decide on the paths below the index, directories they
+     *            prune are not listed at all
+     */
+    public Set<URI> crawl(final URI index, final PathRules rules) throws IOException {
+        return listingFor(index).list(index, rules);
+    }
 
-        final InputStream content = response.getEntity().getContent();
-        final StreamLexer lexer = new StreamLexer(content);
+    /**
+     * Enumerates the resources of a repository.
+     */
+    public interface Listing {
+        Set<URI> list(URI root, PathRules rules) throws IOException;
+    }
 
-        final Set<URI> crawl = new LinkedHashSet<>();
+    private Listing listingFor(final URI root) {
+        switch (this.listing) {
+        case "html":
+            return this::crawlIndexPages;
+        case "assets":
+            return this::listAssets;
+        case "auto":
+            if (!NEXUS3_REPOSITORY.matcher(root.getPath()).matches()) {
+                return this::crawlIndexPages;
+            }
+            return (index, rules) -> {
+                try {
+                    return listAssets(index, rules);
+                } catch (final IOException e) {
+                    log.info("No assets API for {} ({}), crawling the index pages", index, e.getMessage());
+                    return crawlIndexPages(index, rules);
+                }
+            };
+        default:
+            throw new IllegalArgumentException("Unknown NexusClient.listing " + this.listing);
+        }
+    }
 
-        // <a
-        // href="https://repository.apache.org/content/repositories/orgapacheopenejb-094/archetype-catalog.xml">archetype-catalog.xml</a>
-        while (lexer.readAndMark("<a ", "/a>")) {
+    /**
+     * Lists a Nexus 3 repository, {@code http://host/repository/name/},
+     * with {@code http://host/service/rest/v1/assets?repository=name}, which
+     * returns the assets a page at a time.
+     */
+    private Set<URI> listAssets(final URI root, final PathRules rules) throws IOException {
+        final Matcher repository = NEXUS3_REPOSITORY.matcher(root.getPath());
+        if (!repository.matches()) {
+            throw new IOException("Not a Nexus 3 repository " + root);
+        }
 
-            try {
-                final String link = lexer.peek("href=\"", "\"");
-                final String name = lexer.peek(">", "<");
+        final URI api = root.resolve(repository.group(1) + "service/rest/v1/assets?repository="
+                + URLEncoder.encode(repository.group(2), "UTF-8"));
+        final Set<String> paths = new TreeSet<>();
 
-                final URI uri = index.resolve(link);
+        String continuationToken = null;
+        do {
+            final URI page = continuationToken == null ? api : URI.create(api
+                    + "&continuationToken=" + URLEncoder.encode(continuationToken, "UTF-8"));
+            log.info("List {}", page);
 
-                if (name.equals(ONE_UP)) {
-                    continue;
-                }
-                if (link.equals(ONE_UP)) {
-                    continue;
+            try (CloseableHttpResponse response = get(page); InputStream content = response.getEntity().getContent()) {
+                if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                    throw new IOException("Cannot list " + page + " (" + response.getStatusLine() + ")");
                 }
 
-                if (name.endsWith(SLASH)) {
-                    crawl.add(uri);
-                    continue;
+                final JsonNode assets = JSON.readTree(content);
+                for (final JsonNode asset : assets.path("items")) {
+                    final String path = asset.path("path").asText().replaceFirst("^/", "");
+                    if (!path.isEmpty() && isAccepted(path, rules)) {
+                        paths.add(path);
+                    }
                 }
+                continuationToken = assets.path("continuationToken").isTextual()
+                        ? assets.path("continuationToken").asText() : null;
+            }
+        } while (continuationToken != null);
+
+        final Set<URI> resources = new LinkedHashSet<>();
+        for (final String path : paths) {
+            try {
+                resources.add(root.resolve(new URI(null, null, path, null)));
+            } catch (final URISyntaxException e) {
+                log.warn("Skip asset {} ({})", path, e.getMessage());
+            }
+        }
+        return resources;
+    }
 
-                resources.add(uri);
+    /**
+     * @return true if the rules neither prune a directory of the path nor
+     *         reject the path itself
+     */
+    private static boolean isAccepted(final String path, final PathRules rules) {
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            if (rules.isPruned(path.substring(0, slash + 1))) {
+                return false;
+            }
+        }
+        return rules.accepts(path);
+    }
+
+    /**
+     * Crawls the index pages of the repository. Directory listings are
+     * fetched one after another unless the {@code NexusClient.crawlThreads}
+     * system property allows more than one thread, in which case sibling
+     * directories are listed concurrently. Either way the resources are
+     * returned in the same depth-first order.
+     */
+    private Set<URI> crawlIndexPages(final URI index, final PathRules rules) throws IOException {
+        if (this.crawlThreads <= 1) {
+            return crawlSequentially(index, index, rules);
+        }
 
-            } finally {
-                lexer.unmark();
+        final ForkJoinPool pool = new ForkJoinPool(this.crawlThreads);
+        try {
+            return pool.invoke(new CrawlTask(index, index, rules));
+        } catch (final RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
             }
+            throw e;
+        } finally {
+            pool.shutdown();
         }
+    }
+
+    private Set<URI> crawlSequentially(final URI root, final URI index,
+            final PathRules rules) throws IOException {
+        final Set<URI> resources = new LinkedHashSet<>();
+        final Set<URI> crawl = new LinkedHashSet<>();
 
-        content.close();
-        response.close();
+        list(root, index, rules, resources, crawl);
 
         for (final URI uri : crawl) {
-            resources.addAll(crawl(uri));
+            resources.addAll(crawlSequentially(root, uri, rules));
         }
 
         return resources;
     }
-}
\ No newline at end of file
+
+    private void list(final URI root, final URI index, final PathRules rules,
+            final Set<URI> resources, final Set<URI> crawl) throws IOException {
+        log.info("Crawl {}", index);
+
+        try (CloseableHttpResponse response = get(index); InputStream content = response.getEntity().getContent()) {
+            if (!isSuccess(response)) {
+                // for example a dead directory link, the retries of a
+                // temporary failure ran out in get already
+                log.warn("Cannot crawl {} ({})", index, response.getStatusLine());
+                return;
+            }
+
+            final StreamLexer lexer = new StreamLexer(content);
+
+            // <a
+            // href="https://repository.apache.org/content/repositories/orgapacheopenejb-094/archetype-catalog.xml">archetype-catalog.xml</a>
+            while (lexer.readAndMark("<a ", "/a>")) {
+
+                try {
+                    final String link = lexer.peek("href=\"", "\"");
+                    final String name = lexer.peek(">", "<");
+
+                    final URI uri = index.resolve(link);
+
+                    if (name.equals(ONE_UP)) {
+                        continue;
+                    }
+                    if (link.equals(ONE_UP)) {
+                        continue;
+                    }
+
+                    final String path = root.relativize(uri).getPath();
+
+                    if (name.endsWith(SLASH)) {
+                        if (rules.isPruned(path)) {
+                            log.debug("Prune {}", uri);
+                        } else {
+                            crawl.add(uri);
+                        }
+                        continue;
+                    }
+
+                    if (rules.accepts(path)) {
+                        resources.add(uri);
+                    }
+
+                } finally {
+                    lexer.unmark();
+                }
+            }
+        }
+    }
+
+    private final class CrawlTask extends RecursiveTask<Set<URI>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final URI root;
+        private final URI index;
+        private final PathRules rules;
+
+        CrawlTask(final URI root, final URI index, final PathRules rules) {
+            this.root = root;
+            this.index = index;
+            this.rules = rules;
+        }
+
+        @Override
+        protected Set<URI> compute() {
+            final Set<URI> resources = new LinkedHashSet<>();
+            final Set<URI> crawl = new LinkedHashSet<>();
+
+            try {
+                list(this.root, this.index, this.rules, resources, crawl);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            final List<CrawlTask> tasks = new ArrayList<>();
+            for (final URI uri : crawl) {
+                tasks.add(new CrawlTask(this.root, uri, this.rules));
+            }
+            invokeAll(tasks);
+
+            // joined in listing order so the result does not depend on timing
+            for (final CrawlTask task : tasks) {
+                resources.addAll(task.join());
+            }
+
+            return resources;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which paths of a repository are crawled, from include and
+ * exclude globs and from the classifiers and extensions of artifacts to
+ * skip. Paths are relative to the repository root, directories end with a
+ * slash, and the rules are compiled once so they cost the same for HTTP and
+ * {@code file:} repositories.
+ *
+ * <p>
+ * In the globs {@code *} and {@code ?} match within one path segment and
+ * {@code **} matches across segments, so {@code **}{@code /site/**}
+ * excludes every {@code site} directory.
+ */
+public class PathRules {
+
+    /**
+     * Accepts every path.
+     */
+    public static final PathRules NONE = new PathRules("", "", "", "");
+
+    private final List<Pattern> includes;
+    private final List<Pattern> includePrefixes;
+    private final List<Pattern> excludes;
+    private final Pattern skipped;
+
+    /**
+     * @param includes comma separated globs of the artifacts to crawl, all if
+     *            empty
+     * @param excludes comma separated globs of the files and directories not
+     *            to crawl
+     * @param skipClassifiers comma separated classifiers, such as
+     *            {@code javadoc,tests}, of the artifacts not to crawl
+     * @param skipExtensions comma separated extensions, such as {@code pom},
+     *            of the artifacts not to crawl
+     */
+    public PathRules(final String includes, final String excludes,
+            final String skipClassifiers, final String skipExtensions) {
+        this.includes = new ArrayList<>();
+        this.includePrefixes = new ArrayList<>();
+        for (final String glob : split(includes)) {
+            this.includes.add(compile(glob));
+            for (final String prefix : prefixesOf(glob)) {
+                this.includePrefixes.add(compile(prefix));
+            }
+        }
+
+        this.excludes = new ArrayList<>();
+        for (final String glob : split(excludes)) {
+            this.excludes.add(compile(glob));
+        }
+
+        final List<String> skips = new ArrayList<>();
+        for (final String classifier : split(skipClassifiers)) {
+            skips.add("-" + Pattern.quote(classifier) + "\\.[^/]+");
+        }
+        for (final String extension : split(skipExtensions)) {
+            skips.add("\\." + Pattern.quote(extension));
+        }
+        this.skipped = skips.isEmpty() ? null
+                : Pattern.compile("(?:.*/)?[^/]*(?:" + String.join("|", skips) + ")");
+    }
+
+    public static PathRules of(final Configuration configuration) {
+        return new PathRules(configuration.getIncludes(),
+                configuration.getExcludes(), configuration.getSkipClassifiers(),
+                configuration.getSkipExtensions());
+    }
+
+    /**
+     * @param directory the path of a directory, ending with a slash
+     * @return true if nothing below the directory can be accepted, so it need
+     *         not be listed at all
+     */
+    public boolean isPruned(final String directory) {
+        if (matchesAny(this.excludes, directory)) {
+            return true;
+        }
+        return !this.includes.isEmpty() && !matchesAny(this.includePrefixes, directory);
+    }
+
+    /**
+     * @param path the path of a file, a checksum sidecar is judged like the
+     *            file it belongs to
+     * @return true if the file is to be crawled
+     */
+    public boolean accepts(final String path) {
+        final String artifact = artifactOf(path);
+
+        if (matchesAny(this.excludes, artifact)) {
+            return false;
+        }
+        if (!this.includes.isEmpty() && !matchesAny(this.includes, artifact)) {
+            return false;
+        }
+        return this.skipped == null || !this.skipped.matcher(artifact).matches();
+    }
+
+    private static String artifactOf(final String path) {
+        for (final ChecksumType type : ChecksumType.values()) {
+            if (path.endsWith("." + type.getExtension())) {
+                return path.substring(0, path.length() - type.getExtension().length() - 1);
+            }
+        }
+        return path;
+    }
+
+    private static boolean matchesAny(final List<Pattern> patterns, final String path) {
+        for (final Pattern pattern : patterns) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> split(final String globs) {
+        final List<String> split = new ArrayList<>();
+        for (final String glob : globs.split(",")) {
+            if (!glob.trim().isEmpty()) {
+                split.add(glob.trim());
+            }
+        }
+        return split;
+    }
+
+    /**
+     * @return the globs of every directory a match of the include glob could
+     *         be in: {@code org/}, {@code org/*}{@code /} and
+     *         {@code org/*}{@code /foo/} for {@code org/*}{@code /foo/*.jar}.
+     *         Once a segment contains {@code **} every directory below
+     *         qualifies.
+     */
+    private static List<String> prefixesOf(final String glob) {
+        final List<String> prefixes = new ArrayList<>();
+        final String[] segments = glob.split("/");
+        final StringBuilder prefix = new StringBuilder();
+
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].contains("**")) {
+                prefixes.add(prefix + "**");
+                break;
+            }
+            if (i == segments.length - 1) {
+                // the file name
+                break;
+            }
+            prefix.append(segments[i]).append('/');
+            prefixes.add(prefix.toString());
+        }
+        return prefixes;
+    }
+
+    /**
+     * Compiles a glob into a regular expression.
+     */
+    static Pattern compile(final String glob) {
+        final StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                if (i + 2 < glob.length() && glob.charAt(i + 2) == '/') {
+                    regex.append("(?:.*/)?");
+                    i += 2;
+                } else {
+                    regex.append(".*");
+                    i++;
+                }
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Decides whether and when a failed request is retried: exponential
+ * backoff with jitter, bounded by a deadline per request and one for the
+ * whole run, and a circuit breaker that stops hammering a host that keeps
+ * failing.
+ */
+public class RetryPolicy {
+
+    private static final Set<String> IDEMPOTENT_METHODS =
+            new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS"));
+    private static final Set<Integer> RETRIABLE_STATUSES =
+            new HashSet<>(Arrays.asList(HttpStatus.SC_REQUEST_TIMEOUT, 429,
+                    HttpStatus.SC_INTERNAL_SERVER_ERROR, HttpStatus.SC_BAD_GATEWAY,
+                    HttpStatus.SC_SERVICE_UNAVAILABLE, HttpStatus.SC_GATEWAY_TIMEOUT));
+
+    private final int retries;
+    private final long backoff;
+    private final long maxBackoff;
+    private final long requestDeadline;
+    private final long deadline;
+    private final int circuitBreakerThreshold;
+    private final long circuitBreakerCooldown;
+
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public RetryPolicy() {
+        this.retries = Integer.parseInt(System.getProperty("NexusClient.retries", "5"));
+        this.backoff = Long.parseLong(System.getProperty("NexusClient.backoff", "250"));
+        this.maxBackoff = Long.parseLong(System.getProperty("NexusClient.maxBackoff", "10000"));
+        this.requestDeadline = Long.parseLong(System.getProperty("NexusClient.requestDeadline", "300000"));
+        final long runDeadline = Long.parseLong(System.getProperty("NexusClient.deadline", "0"));
+        this.deadline = runDeadline > 0 ? System.currentTimeMillis() + runDeadline : Long.MAX_VALUE;
+        this.circuitBreakerThreshold = Integer.parseInt(System.getProperty("NexusClient.circuitBreakerThreshold", "10"));
+        this.circuitBreakerCooldown = Long.parseLong(System.getProperty("NexusClient.circuitBreakerCooldown", "30000"));
+    }
+
+    /**
+     * @return the point in time after which a request sent now must not be
+     *         retried anymore
+     */
+    public long newDeadline() {
+        return Math.min(this.deadline, System.currentTimeMillis() + this.requestDeadline);
+    }
+
+    /**
+     * Fails fast if the host of the request is known to be down or the run
+     * ran out of time.
+     */
+    public void admit(final HttpUriRequest request) throws IOException {
+        if (System.currentTimeMillis() > this.deadline) {
+            throw new IOException("Deadline exceeded, not requesting " + request.getURI());
+        }
+
+        final Circuit circuit = this.circuits.get(hostOf(request));
+        if (circuit != null && !circuit.admits()) {
+            this.rejected.incrementAndGet();
+            throw new IOException("Too many failures for " + hostOf(request)
+                    + ", not requesting " + request.getURI());
+        }
+    }
+
+    public void succeeded(final HttpUriRequest request) {
+        final Circuit circuit = this.circuits.get(hostOf(request));
+        if (circuit != null) {
+            circuit.close();
+        }
+    }
+
+    public void failed(final HttpUriRequest request, final IOException e) {
+        if (e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException) {
+            this.timeouts.incrementAndGet();
+        }
+        failed(request);
+    }
+
+    public void failed(final HttpUriRequest request) {
+        this.circuits.computeIfAbsent(hostOf(request), host -> new Circuit()).fail();
+    }
+
+    /**
+     * @return true if the response is a temporary failure of the server
+     */
+    public boolean isRetriable(final HttpResponse response) {
+        return RETRIABLE_STATUSES.contains(response.getStatusLine().getStatusCode());
+    }
+
+    /**
+     * Only idempotent requests are retried, and not after failures that
+     * will not go away by asking again.
+     */
+    public boolean mayRetry(final HttpUriRequest request, final IOException e,
+            final int attempt, final long deadline) {
+        if (e instanceof UnknownHostException || e instanceof SSLException
+                || (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException))) {
+            return false;
+        }
+        return mayRetry(request, attempt, deadline);
+    }
+
+    public boolean mayRetry(final HttpUriRequest request, final int attempt,
+            final long deadline) {
+        return attempt < this.retries
+                && IDEMPOTENT_METHODS.contains(request.getMethod())
+                && System.currentTimeMillis() + delayOf(attempt, null) < deadline;
+    }
+
+    /**
+     * Waits before the given retry, honouring a {@code Retry-After} the
+     * server may have sent.
+     */
+    public void pause(final int attempt, final HttpResponse response) throws IOException {
+        this.retried.incrementAndGet();
+
+        final long delay = delayOf(attempt, response);
+        final long jittered = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        try {
+            Thread.sleep(jittered);
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", ie);
+        }
+    }
+
+    private long delayOf(final int attempt, final HttpResponse response) {
+        if (response != null) {
+            final long retryAfter = retryAfterOf(response);
+            if (retryAfter >= 0) {
+                return Math.min(this.maxBackoff, retryAfter);
+            }
+        }
+        final long exponential = this.backoff << Math.min(attempt, 30);
+        return exponential < 0 ? this.maxBackoff : Math.min(this.maxBackoff, exponential);
+    }
+
+    private static long retryAfterOf(final HttpResponse response) {
+        if (response.getFirstHeader(HttpHeaders.RETRY_AFTER) == null) {
+            return -1;
+        }
+        try {
+            final String seconds = response.getFirstHeader(HttpHeaders.RETRY_AFTER).getValue().trim();
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(seconds));
+        } catch (final NumberFormatException e) {
+            // an HTTP date, fall back to the regular backoff
+            return -1;
+        }
+    }
+
+    private static String hostOf(final HttpUriRequest request) {
+        return request.getURI().getHost() + ":" + request.getURI().getPort();
+    }
+
+    /**
+     * @return the number of requests that were retried
+     */
+    public long getRetries() {
+        return this.retried.get();
+    }
+
+    /**
+     * @return the number of requests that timed out
+     */
+    public long getTimeouts() {
+        return this.timeouts.get();
+    }
+
+    /**
+     * @return the number of requests not sent because their host's circuit
+     *         was open
+     */
+    public long getRejected() {
+        return this.rejected.get();
+    }
+
+    private final class Circuit {
+
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile long openUntil;
+
+        boolean admits() {
+            // once the cooldown passed requests are let through again, the
+            // next failure reopens the circuit right away
+            return System.currentTimeMillis() >= this.openUntil;
+        }
+
+        void fail() {
+            if (this.failures.incrementAndGet() >= RetryPolicy.this.circuitBreakerThreshold) {
+                this.openUntil = System.currentTimeMillis() + RetryPolicy.this.circuitBreakerCooldown;
+            }
+        }
+
+        void close() {
+            this.failures.set(0);
+            this.openUntil = 0;
+        }
+    }
+}
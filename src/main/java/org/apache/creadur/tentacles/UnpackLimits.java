@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bounds the resources unpacking a single archive may take, counting the
+ * archive and everything nested in it together:
+ * <ul>
+ * <li>{@code Unpacker.maxBytes} uncompressed bytes read from its entries</li>
+ * <li>{@code Unpacker.maxEntries} entries</li>
+ * <li>{@code Unpacker.maxRatio} uncompressed bytes per byte of the archive,
+ * checked once more than a MiB has been uncompressed</li>
+ * <li>{@code Unpacker.maxDepth} levels of nested jars</li>
+ * <li>{@code Unpacker.timeout} milliseconds</li>
+ * </ul>
+ * A limit of 0 disables the check, except for the depth, where 0 leaves
+ * every nested jar packed.
+ */
+class UnpackLimits {
+
+    private static final long RATIO_THRESHOLD = 1024 * 1024;
+
+    private final long maxBytes;
+    private final long maxEntries;
+    private final long maxRatio;
+    private final int maxDepth;
+    private final long timeout;
+
+    UnpackLimits() {
+        this.maxBytes = Long.parseLong(System.getProperty("Unpacker.maxBytes", "8589934592"));
+        this.maxEntries = Long.parseLong(System.getProperty("Unpacker.maxEntries", "1000000"));
+        this.maxRatio = Long.parseLong(System.getProperty("Unpacker.maxRatio", "100"));
+        this.maxDepth = Integer.parseInt(System.getProperty("Unpacker.maxDepth", "8"));
+        this.timeout = Long.parseLong(System.getProperty("Unpacker.timeout", "1800000"));
+    }
+
+    /**
+     * @param length the size of the archive, 0 if it is unknown
+     */
+    Budget budget(final long length) {
+        return new Budget(new Usage(length), 0);
+    }
+
+    /**
+     * Thrown once an archive exceeded one of the limits, its contents are
+     * truncated.
+     */
+    static class LimitExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        LimitExceededException(final String reason) {
+            super(reason);
+        }
+    }
+
+    /**
+     * What all levels of an archive used so far, shared by the threads
+     * unpacking it.
+     */
+    private final class Usage {
+
+        private final long length;
+        private final long deadline;
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong entries = new AtomicLong();
+        private final AtomicReference<String> exceeded = new AtomicReference<>();
+        private final AtomicReference<String> skipped = new AtomicReference<>();
+
+        Usage(final long length) {
+            this.length = length;
+            this.deadline = UnpackLimits.this.timeout <= 0 ? Long.MAX_VALUE
+                    : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(UnpackLimits.this.timeout);
+        }
+
+        void check() throws LimitExceededException {
+            if (this.exceeded.get() != null) {
+                throw new LimitExceededException(this.exceeded.get());
+            }
+            if (System.nanoTime() - this.deadline > 0) {
+                exceed("took longer than " + UnpackLimits.this.timeout + " ms");
+            }
+        }
+
+        void exceed(final String reason) throws LimitExceededException {
+            this.exceeded.compareAndSet(null, reason);
+            throw new LimitExceededException(this.exceeded.get());
+        }
+    }
+
+    /**
+     * The budget of one level of an archive.
+     */
+    final class Budget {
+
+        private final Usage usage;
+        private final int depth;
+
+        private Budget(final Usage usage, final int depth) {
+            this.usage = usage;
+            this.depth = depth;
+        }
+
+        /**
+         * Counts the next entry.
+         */
+        void entry() throws LimitExceededException {
+            this.usage.check();
+            final long entries = this.usage.entries.incrementAndGet();
+            if (UnpackLimits.this.maxEntries > 0 && entries > UnpackLimits.this.maxEntries) {
+                this.usage.exceed("more than " + UnpackLimits.this.maxEntries + " entries");
+            }
+        }
+
+        /**
+         * @return the content of an entry, counting every byte read from it
+         */
+        InputStream count(final InputStream content) {
+            return new FilterInputStream(content) {
+
+                @Override
+                public int read() throws IOException {
+                    final int b = super.read();
+                    if (b >= 0) {
+                        add(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    final int read = super.read(b, off, len);
+                    if (read > 0) {
+                        add(read);
+                    }
+                    return read;
+                }
+
+                @Override
+                public void close() {
+                    // the entry belongs to its archive
+                }
+            };
+        }
+
+        private void add(final long read) throws LimitExceededException {
+            this.usage.check();
+            final long bytes = this.usage.bytes.addAndGet(read);
+            if (UnpackLimits.this.maxBytes > 0 && bytes > UnpackLimits.this.maxBytes) {
+                this.usage.exceed("more than " + UnpackLimits.this.maxBytes + " bytes uncompressed");
+            }
+            if (UnpackLimits.this.maxRatio > 0 && this.usage.length > 0 && bytes > RATIO_THRESHOLD
+                    && bytes / this.usage.length > UnpackLimits.this.maxRatio) {
+                this.usage.exceed("compressed more than " + UnpackLimits.this.maxRatio + " to 1");
+            }
+        }
+
+        /**
+         * @return the budget of a jar nested in this level, or null if it is
+         *         nested too deep to be unpacked
+         */
+        Budget nested() {
+            if (this.depth + 1 > UnpackLimits.this.maxDepth) {
+                this.usage.skipped.compareAndSet(null,
+                        "jars nested deeper than " + UnpackLimits.this.maxDepth + " levels not unpacked");
+                return null;
+            }
+            return new Budget(this.usage, this.depth + 1);
+        }
+
+        /**
+         * @return why the archive was truncated, or null if it was not
+         */
+        String reason() {
+            return this.usage.exceeded.get() != null
+                    ? this.usage.exceeded.get() : this.usage.skipped.get();
+        }
+    }
+}
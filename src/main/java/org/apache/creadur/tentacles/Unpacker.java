@@ -0,0 +1,647 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.apache.creadur.tentacles.UnpackLimits.Budget;
+import org.apache.creadur.tentacles.UnpackLimits.LimitExceededException;
+import org.apache.creadur.tentacles.filter.Filters;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Extracts zips and tars into their contents directories, recursing into
+ * the jars they contain. The {@code Unpacker.extract} system property
+ * decides what is written: {@code all} entries, the default, or only the
+ * {@code legal} documents, which are all the reports read. Every archive
+ * is unpacked within the {@link UnpackLimits}, an archive that exceeds
+ * them is truncated and the reason recorded.
+ */
+public class Unpacker {
+
+    private static final Logger log = LogManager.getLogger(Unpacker.class);
+
+    /**
+     * Changes whenever an archive is extracted differently, so that the
+     * contents extracted by an earlier version are extracted again.
+     */
+    private static final int VERSION = 2;
+    private static final String MARKER = ".tentacles-unpacked";
+
+    private final Layout layout;
+    private final FileSystem fileSystem;
+    private final IOSystem ioSystem;
+    private final Filters filters;
+    private final ContentStore contentStore;
+    private final UnpackLimits limits;
+    private final Map<File, String> truncated = new ConcurrentHashMap<>();
+    private final String extract;
+    private final int nestedBufferSize;
+    private final int threads;
+
+    public Unpacker(final Platform platform, final Layout layout) {
+        this(platform, layout, null);
+    }
+
+    /**
+     * @param contentStore shares extracted contents with other runs and
+     *            between the copies of a nested jar, may be null
+     */
+    public Unpacker(final Platform platform, final Layout layout,
+            final ContentStore contentStore) {
+        this.layout = layout;
+        this.contentStore = contentStore;
+        this.limits = new UnpackLimits();
+        this.extract = System.getProperty("Unpacker.extract", "all");
+        this.nestedBufferSize = Integer.parseInt(System.getProperty("Unpacker.nestedBufferSize", "16777216"));
+        this.threads = Integer.parseInt(System.getProperty("Unpacker.threads", "1"));
+        if (!"all".equals(this.extract) && !"legal".equals(this.extract)) {
+            throw new IllegalArgumentException("Unknown Unpacker.extract " + this.extract);
+        }
+        this.fileSystem = platform.getFileSystem();
+        this.ioSystem = platform.getIoSystem();
+        this.filters = new Filters();
+    }
+
+    /**
+     * @return the archives that exceeded the limits, with the reason
+     */
+    public Map<File, String> getTruncated() {
+        return Collections.unmodifiableMap(this.truncated);
+    }
+
+    /**
+     * Unpacks the mirrored archives, up to {@code Unpacker.threads} at the
+     * same time. With more than one thread the nested jars of an archive
+     * are unpacked concurrently too. An archive that fails only loses its
+     * own contents.
+     */
+    public void unpack(final Collection<File> archives) {
+        if (this.threads <= 1) {
+            for (final File archive : archives) {
+                unpackIsolated(archive);
+            }
+            return;
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(this.threads);
+        try {
+            final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (final File archive : archives) {
+                tasks.add(pool.submit(() -> unpackIsolated(archive)));
+            }
+            for (final ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void unpackIsolated(final File archive) {
+        try {
+            unpack(archive);
+        } catch (final RuntimeException e) {
+            log.error("Cannot unpack {}", archive, e);
+        }
+    }
+
+    /**
+     * Extracts every entry of a mirrored archive. The contents directory
+     * carries a fingerprint of the archive it was extracted from, and an
+     * archive whose contents are current is not extracted again. Otherwise
+     * the contents are rebuilt next to the directory, which is only
+     * replaced once they are complete. An archive the content store already
+     * holds the contents of is not extracted either, its contents are
+     * linked from the store.
+     */
+    public void unpack(final File archive) {
+        final Checksum checksum = this.contentStore == null
+                ? null : this.contentStore.checksumOf(archive);
+        final String fingerprint = fingerprintOf(archive, checksum);
+        final File contents = contentsOf(archive);
+
+        try {
+            final File marker = new File(contents, MARKER);
+            if (marker.isFile() && fingerprint.equals(this.ioSystem.slurp(marker).trim())) {
+                log.info("Up to date {}", archive);
+                return;
+            }
+
+            final File rebuilt = new File(contents.getPath() + ".tmp-" + UUID.randomUUID());
+            try {
+                this.fileSystem.mkdirs(rebuilt);
+
+                if (unpack(archive, checksum, rebuilt)) {
+                    this.ioSystem.writeString(new File(rebuilt, MARKER), fingerprint);
+                }
+
+                replace(contents, rebuilt);
+            } finally {
+                this.fileSystem.delete(rebuilt);
+            }
+        } catch (final IOException e) {
+            log.error("Cannot unpack {}", archive, e);
+        }
+    }
+
+    /**
+     * Moves the rebuilt contents in place of the old ones, which are only
+     * deleted afterwards. Files of the old contents may be links into a
+     * store, so they are never written to.
+     */
+    private void replace(final File contents, final File rebuilt) throws IOException {
+        final File old = new File(contents.getPath() + ".old-" + UUID.randomUUID());
+        if (contents.exists()) {
+            Files.move(contents.toPath(), old.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(rebuilt.toPath(), contents.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        this.fileSystem.delete(old);
+    }
+
+    /**
+     * @return false if the archive was not extracted completely
+     */
+    private boolean unpack(final File archive, final Checksum checksum,
+            final File contents) throws IOException {
+        if (checksum == null) {
+            return extract(archive, contents);
+        }
+
+        if (this.contentStore.fetchContents(checksum, this.extract, contents)) {
+            log.info("Shared {}", archive);
+            return true;
+        }
+        if (!extract(archive, contents)) {
+            return false;
+        }
+        this.contentStore.putContents(checksum, this.extract, contents);
+        return true;
+    }
+
+    /**
+     * @return what identifies the archive and the way it was extracted
+     */
+    private String fingerprintOf(final File archive, final Checksum checksum) {
+        return "source=" + archive.getAbsolutePath() + "\n"
+                + "length=" + archive.length() + "\n"
+                + "lastModified=" + archive.lastModified() + "\n"
+                + (checksum == null ? "" : "checksum=" + checksum + "\n")
+                + "extract=" + this.extract + "\n"
+                + "version=" + VERSION;
+    }
+
+    /**
+     * @return false if the archive cannot be read or was truncated
+     */
+    private boolean extract(final File archive, final File contents) {
+        final Budget budget = this.limits.budget(archive.length());
+        final boolean extracted = extract(archive, contents, budget);
+        return isComplete(archive, budget) && extracted;
+    }
+
+    /**
+     * @return false if the archive exceeded the limits, which is recorded
+     */
+    private boolean isComplete(final File archive, final Budget budget) {
+        final String reason = budget.reason();
+        if (reason == null) {
+            return true;
+        }
+
+        log.warn("Truncated {}: {}", archive, reason);
+        this.truncated.put(archive, reason);
+        return false;
+    }
+
+    /**
+     * @return false if the archive cannot be read, a file that is no
+     *         archive at all has nothing to unpack
+     */
+    private boolean extract(final File archive, final File contents,
+            final Budget budget) {
+        final boolean legal = "legal".equals(this.extract);
+
+        try (InputStream in = this.ioSystem.read(archive)) {
+            if (legal && ArchiveType.of(in) == ArchiveType.ZIP) {
+                return extractLegal(archive, contents, budget);
+            }
+
+            try (ArchiveReader reader = ArchiveReader.open(in)) {
+                if (reader == null) {
+                    log.info("Not an archive {}", archive);
+                    return true;
+                }
+
+                log.info("Unpack {}", archive);
+
+                if (legal) {
+                    scan(reader, contents, budget);
+                } else {
+                    unpack(reader, contents, budget);
+                }
+                return true;
+            }
+        } catch (final LimitExceededException e) {
+            // recorded by the budget
+            return false;
+        } catch (final IOException e) {
+            log.error("Cannot unpack {}", archive);
+            return false;
+        }
+    }
+
+    /**
+     * Unpacks the entries of the stream. Inside a fork-join pool the nested
+     * jars are unpacked as subtasks, at most {@code Unpacker.threads} of
+     * them pending at a time to bound the memory their buffers hold, and
+     * all of them are done when this returns.
+     */
+    private void unpack(final ArchiveReader reader, final File contents,
+            final Budget budget) throws IOException {
+        final List<ForkJoinTask<?>> nested = new ArrayList<>();
+
+        try {
+            String path = null;
+
+            while ((path = reader.next()) != null) {
+
+                budget.entry();
+
+                final File fileEntry = entryOf(contents, path);
+                if (fileEntry == null) {
+                    continue;
+                }
+
+                this.fileSystem.mkparent(fileEntry);
+
+                final InputStream content = new BufferedInputStream(
+                        budget.count(reader.content()), ArchiveType.HEAD);
+                final Budget jar = ArchiveType.of(content) != null ? budget.nested() : null;
+
+                if (jar == null) {
+                    this.ioSystem.copy(content, fileEntry);
+                } else if (ForkJoinTask.inForkJoinPool()) {
+                    if (nested.size() >= this.threads) {
+                        nested.remove(0).join();
+                    }
+                    nested.add(ForkJoinTask.adapt(unpackNested(content, fileEntry, jar)).fork());
+                } else {
+                    unpackNested(content, fileEntry, jar).run();
+                }
+            }
+        } finally {
+            for (final ForkJoinTask<?> task : nested) {
+                task.join();
+            }
+        }
+    }
+
+    /**
+     * Writes a nested jar and buffers it, so it can be unpacked from memory
+     * instead of being read back from disk. Only a jar larger than
+     * {@code Unpacker.nestedBufferSize} is unpacked from the written file.
+     * With a content store, the jar is digested on the way, so that a jar
+     * nested in several archives is only unpacked once.
+     *
+     * @return unpacks the nested jar, on any thread
+     */
+    private Runnable unpackNested(final InputStream zip, final File jar,
+            final Budget budget) throws IOException {
+        final MessageDigest digest = this.contentStore == null ? null : ChecksumType.SHA1.newDigest();
+        final byte[] buffered = readUpTo(zip, this.nestedBufferSize);
+
+        if (buffered.length > this.nestedBufferSize) {
+            this.ioSystem.copy(new SequenceInputStream(
+                    new ByteArrayInputStream(buffered), new Unclosable(zip)), jar, digest);
+            final Checksum checksum = checksumOf(digest);
+            return () -> unpackShared(checksum, jar, budget, () -> unpackNested(jar, budget));
+        }
+
+        this.ioSystem.copy(buffered, jar);
+        if (digest != null) {
+            digest.update(buffered);
+        }
+        final Checksum checksum = checksumOf(digest);
+
+        return () -> unpackShared(checksum, jar, budget, () -> unpackNested(buffered, jar, budget));
+    }
+
+    private static Checksum checksumOf(final MessageDigest digest) {
+        return digest == null ? null : new Checksum(ChecksumType.SHA1, Checksum.toHex(digest));
+    }
+
+    /**
+     * Links the contents of a nested jar that was unpacked before, in this
+     * or in another archive, instead of unpacking it again. Otherwise the
+     * jar is unpacked and its contents kept for the next copy of it.
+     */
+    private void unpackShared(final Checksum checksum, final File jar,
+            final Budget budget, final Runnable unpack) {
+        if (checksum == null) {
+            unpack.run();
+            return;
+        }
+
+        final File contents = contentsOf(jar);
+        try {
+            if (this.contentStore.fetchContents(checksum, this.extract, contents)) {
+                log.info("Shared {}", jar);
+                return;
+            }
+
+            unpack.run();
+
+            // a truncated or unreadable jar is unpacked again where it recurs
+            if (budget.reason() == null && contents.isDirectory()) {
+                this.contentStore.putContents(checksum, this.extract, contents);
+            }
+        } catch (final IOException e) {
+            log.error("Cannot share {}", jar, e);
+        }
+    }
+
+    private void unpackNested(final File jar, final Budget budget) {
+        try {
+            extract(jar, contentsOf(jar), budget);
+        } catch (final RuntimeException e) {
+            log.error("Cannot unpack {}", jar, e);
+        }
+    }
+
+    private void unpackNested(final byte[] buffered, final File jar,
+            final Budget budget) {
+        ArchiveReader nested = null;
+        try {
+            nested = ArchiveReader.open(new ByteArrayInputStream(buffered));
+            if (nested == null) {
+                log.info("Not an archive {}", jar);
+                return;
+            }
+
+            log.info("Unpack {}", jar);
+            unpack(nested, contentsOf(jar), budget);
+        } catch (final LimitExceededException e) {
+            // recorded by the budget
+        } catch (final IOException e) {
+            log.error("Cannot unpack {}", jar);
+        } catch (final RuntimeException e) {
+            log.error("Cannot unpack {}", jar, e);
+        } finally {
+            this.ioSystem.close(nested);
+        }
+    }
+
+    /**
+     * @return the stream up to its end, or just beyond the limit if it is
+     *         longer
+     */
+    private static byte[] readUpTo(final InputStream in, final int limit)
+            throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final byte[] bytes = new byte[8192];
+        int length;
+        while (buffer.size() <= limit && (length = in.read(bytes)) != -1) {
+            buffer.write(bytes, 0, length);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Writes only the legal documents of the archive and of the jars nested
+     * in it. The entry names are read from the central directory, so only
+     * the selected entries and the nested jars are inflated, and the nested
+     * jars are read from the enclosing archive without being written.
+     */
+    private boolean extractLegal(final File archive, final File contents,
+            final Budget budget) {
+        log.info("Unpack legal documents of {}", archive);
+
+        final ZipFile zip;
+        try {
+            zip = new ZipFile(archive);
+        } catch (final ZipException e) {
+            // no readable central directory, which a sequential read may not need
+            log.debug("No central directory in {}", archive, e);
+            return extractSequentially(archive, contents, budget);
+        } catch (final IOException e) {
+            log.error("Not a zip {}", archive);
+            return false;
+        }
+
+        try {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+
+                if (entry.isDirectory()) {
+                    continue;
+                }
+
+                budget.entry();
+
+                final File fileEntry = entryOf(contents, entry.getName());
+
+                if (fileEntry == null) {
+                    continue;
+                }
+
+                if (this.filters.isLegal(fileEntry.getName())) {
+                    this.fileSystem.mkparent(fileEntry);
+                    try (InputStream content = zip.getInputStream(entry)) {
+                        this.ioSystem.copy(budget.count(content), fileEntry);
+                    }
+                } else if (!fileEntry.getName().endsWith(".class")) {
+                    // class files are never archives, any other entry is sniffed
+                    try (InputStream content = zip.getInputStream(entry)) {
+                        scanNested(budget.count(content), fileEntry, budget);
+                    }
+                }
+            }
+            return true;
+        } catch (final LimitExceededException e) {
+            // recorded by the budget
+            return false;
+        } catch (final IOException e) {
+            // for example a corrupt entry, the contents are incomplete
+            log.error("Cannot unpack {}", archive, e);
+            return false;
+        } finally {
+            this.ioSystem.close(zip);
+        }
+    }
+
+    private boolean extractSequentially(final File archive, final File contents,
+            final Budget budget) {
+        try (ArchiveReader reader = ArchiveReader.zip(this.ioSystem.read(archive))) {
+            scan(reader, contents, budget);
+            return true;
+        } catch (final LimitExceededException e) {
+            // recorded by the budget
+            return false;
+        } catch (final IOException e) {
+            log.error("Not a zip {}", archive);
+            return false;
+        }
+    }
+
+    /**
+     * Scans an archive as it is read from the stream, without the archive
+     * itself ever being written to disk. Only the legal documents are
+     * extracted, nested jars are scanned from the same stream. Like an
+     * unpacked archive, the documents are collected next to the contents
+     * directory, which they replace once the scan is done.
+     *
+     * @param content the archive
+     * @param archive where the archive would have been mirrored to
+     */
+    public void scan(final InputStream content, final File archive)
+            throws IOException {
+        log.info("Scan {}", archive);
+
+        final Budget budget = this.limits.budget(0);
+        final ArchiveReader reader = ArchiveReader.open(new Unclosable(content));
+        if (reader == null) {
+            log.info("Not an archive {}", archive);
+            return;
+        }
+
+        final File contents = contentsOf(archive);
+        final File rebuilt = new File(contents.getPath() + ".tmp-" + UUID.randomUUID());
+        try {
+            this.fileSystem.mkdirs(rebuilt);
+            try {
+                scan(reader, rebuilt, budget);
+            } catch (final LimitExceededException e) {
+                // recorded by the budget
+            }
+            replace(contents, rebuilt);
+        } finally {
+            this.ioSystem.close(reader);
+            this.fileSystem.delete(rebuilt);
+            isComplete(archive, budget);
+        }
+    }
+
+    private void scan(final ArchiveReader reader, final File contents,
+            final Budget budget) throws IOException {
+        String path = null;
+
+        while ((path = reader.next()) != null) {
+
+            budget.entry();
+
+            final File fileEntry = entryOf(contents, path);
+
+            if (fileEntry == null) {
+                continue;
+            }
+
+            if (this.filters.isLegal(fileEntry.getName())) {
+                this.fileSystem.mkparent(fileEntry);
+                this.ioSystem.copy(budget.count(reader.content()), fileEntry);
+            } else {
+                scanNested(budget.count(reader.content()), fileEntry, budget);
+            }
+        }
+    }
+
+    /**
+     * Scans an entry that turns out to be an archive from the stream of its
+     * enclosing archive.
+     */
+    private void scanNested(final InputStream content, final File fileEntry,
+            final Budget budget) throws IOException {
+        ArchiveReader nested = null;
+        try {
+            nested = ArchiveReader.open(content);
+            final Budget jar = nested == null ? null : budget.nested();
+            if (jar != null) {
+                scan(nested, contentsOf(fileEntry), jar);
+            }
+        } catch (final LimitExceededException e) {
+            throw e;
+        } catch (final IOException e) {
+            log.error("Cannot unpack {}", fileEntry);
+        } finally {
+            this.ioSystem.close(nested);
+        }
+    }
+
+    private File contentsOf(final File archive) {
+        final File contents = Archive.contentsDirectoryOf(archive, this.layout);
+        this.fileSystem.mkdirs(contents);
+        return contents;
+    }
+
+    /**
+     * @return where the entry is extracted to, or null for an entry such as
+     *         {@code ../../etc/passwd} that would end up outside of the
+     *         contents directory
+     */
+    private static File entryOf(final File contents, final String path) {
+        final File entry = new File(contents, path);
+        if (!entry.toPath().normalize().startsWith(contents.toPath().normalize())) {
+            log.warn("Skip {} outside of {}", path, contents);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Lets a nested archive be read and closed without closing the archive
+     * it is read from.
+     */
+    private static final class Unclosable extends FilterInputStream {
+
+        Unclosable(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // the enclosing stream is closed by its owner
+        }
+    }
+}
@@ -18,7 +18,6 @@
  */
 package org.apache.creadur.tentacles.filter;
 
-import java.io.File;
 import java.io.FileFilter;
 
 public class Filters {
@@ -51,22 +50,25 @@ public class Filters {
         return this.legalOnly;
     }
 
-    public FileFilter licensesDeclaredIn(final File contents) {
-        return new AndFilter(new DeclaredFilter(contents), new LicenseFilter());
-
-    }
-
-    public FileFilter noticesDeclaredIn(final File contents) {
-        return new AndFilter(new DeclaredFilter(contents), new NoticeFilter());
+    /**
+     * @return true if a file of the given name is a legal document
+     */
+    public boolean isLegal(final String name) {
+        return this.legalOnly.accept(name);
     }
 
-    public FileFilter legalDocumentsUndeclaredIn(final File contents) {
-        return new AndFilter(new NotFilter(new DeclaredFilter(contents)),
-                new LegalFilter());
+    /**
+     * @return true if a file of the given name is a license
+     */
+    public boolean isLicense(final String name) {
+        return this.licensesOnly.accept(name);
     }
 
-    public FileFilter legalDocumentsDeclaredIn(final File contents) {
-        return new AndFilter(new DeclaredFilter(contents), new LegalFilter());
+    /**
+     * @return true if a file of the given name is a notice
+     */
+    public boolean isNotice(final String name) {
+        return this.noticesOnly.accept(name);
     }
 
     public FileFilter archivesInPath(final String repositoryPathNameFilter) {
@@ -20,24 +20,26 @@ package org.apache.creadur.tentacles.filter;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.util.regex.Pattern;
 
 final class IsArchiveInPathFilter implements FileFilter {
 
-    private static final String MATCH_PATTERN = ".*\\.(jar|zip|war|ear|rar|tar.gz)";
-    private final String pathNameFilter;
+    private static final Pattern MATCH_PATTERN =
+            Pattern.compile(".*\\.(jar|zip|war|ear|rar|tar.gz|tgz|tar.bz2|tar.xz)");
+    private final Pattern pathNameFilter;
 
     IsArchiveInPathFilter(final String pathNameFilter) {
         super();
-        this.pathNameFilter = pathNameFilter;
+        this.pathNameFilter = Pattern.compile(pathNameFilter);
     }
 
+    /**
+     * The name is matched first, which rules out most files before their
+     * absolute path is even built.
+     */
     @Override
     public boolean accept(final File pathname) {
-        final String path = pathname.getAbsolutePath();
-        return path.matches(this.pathNameFilter) && isValidArchive(path);
-    }
-
-    private boolean isValidArchive(final String path) {
-        return path.matches(MATCH_PATTERN);
+        return MATCH_PATTERN.matcher(pathname.getName()).matches()
+                && this.pathNameFilter.matcher(pathname.getAbsolutePath()).matches();
     }
 }
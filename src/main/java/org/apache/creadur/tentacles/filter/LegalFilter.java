@@ -28,6 +28,10 @@ final class LegalFilter implements FileFilter {
 
     @Override
     public boolean accept(final File pathname) {
-        return notice.accept(pathname) || license.accept(pathname);
+        return accept(pathname.getName()) && !pathname.isDirectory();
+    }
+
+    boolean accept(final String name) {
+        return notice.accept(name) || license.accept(name);
     }
 }
\ No newline at end of file
@@ -22,23 +22,34 @@ import java.io.File;
 import java.io.FileFilter;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 public class ListOfFilesFilter implements FileFilter {
 
 	private final List<String> listOfFiles;
+	private final Set<String> names;
 
 	ListOfFilesFilter(String... files) {
 		listOfFiles = Arrays.asList(files);
+		names = new HashSet<>(listOfFiles);
 	}
 
+	/**
+	 * Only a file with a matching name is asked whether it is a directory.
+	 */
 	@Override
 	public boolean accept(File pathname) {
-		if (pathname.isDirectory()) {
-			return false;
-		}
+		return accept(pathname.getName()) && !pathname.isDirectory();
+	}
 
-		return listOfFiles.contains(pathname.getName().toLowerCase());
+	/**
+	 * @return true if the given file name is one of the files to filter for.
+	 */
+	public boolean accept(final String name) {
+		return names.contains(name.toLowerCase(Locale.ROOT));
 	}
 
 	/**
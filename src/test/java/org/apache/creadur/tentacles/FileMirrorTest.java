@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileMirrorTest extends Assert {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File src;
+    private File file;
+
+    @Before
+    public void archive() throws IOException {
+        this.src = new File(this.folder.newFolder("staging"), "a-1.0.jar");
+        write(this.src, "a");
+        this.file = new File(this.folder.getRoot(), "repo/a-1.0.jar");
+    }
+
+    @Test
+    public void unchangedCopiesAreKept() throws Exception {
+        final FileMirror mirror = new FileMirror(Platform.aPlatform(), "copy", null);
+        mirror.mirror(this.src, this.file);
+        write(this.file, "b");
+        this.file.setLastModified(this.src.lastModified());
+
+        mirror.mirror(this.src, this.file);
+
+        assertEquals("b", read(this.file));
+    }
+
+    @Test
+    public void changedArchivesAreCopiedAgain() throws Exception {
+        final FileMirror mirror = new FileMirror(Platform.aPlatform(), "copy", null);
+        mirror.mirror(this.src, this.file);
+        write(this.src, "c");
+        this.src.setLastModified(this.file.lastModified() + 2000);
+
+        mirror.mirror(this.src, this.file);
+
+        assertEquals("c", read(this.file));
+        assertEquals(this.src.lastModified(), this.file.lastModified());
+    }
+
+    @Test
+    public void linksLeftByAnotherModeAreReplacedByCopies() throws Exception {
+        new FileMirror(Platform.aPlatform(), "symlink", null).mirror(this.src, this.file);
+
+        new FileMirror(Platform.aPlatform(), "copy", null).mirror(this.src, this.file);
+
+        assertFalse(Files.isSymbolicLink(this.file.toPath()));
+        assertFalse(Files.isSameFile(this.file.toPath(), this.src.toPath()));
+        assertEquals("a", read(this.file));
+    }
+
+    @Test
+    public void archivesAreHardlinked() throws Exception {
+        new FileMirror(Platform.aPlatform(), "link", null).mirror(this.src, this.file);
+
+        assertFalse(Files.isSymbolicLink(this.file.toPath()));
+        assertTrue(Files.isSameFile(this.file.toPath(), this.src.toPath()));
+    }
+
+    @Test
+    public void symlinksAreReplacedByHardlinks() throws Exception {
+        new FileMirror(Platform.aPlatform(), "symlink", null).mirror(this.src, this.file);
+
+        new FileMirror(Platform.aPlatform(), "link", null).mirror(this.src, this.file);
+
+        assertFalse(Files.isSymbolicLink(this.file.toPath()));
+        assertTrue(Files.isSameFile(this.file.toPath(), this.src.toPath()));
+    }
+
+    @Test
+    public void archivesAreSymlinked() throws Exception {
+        new FileMirror(Platform.aPlatform(), "symlink", null).mirror(this.src, this.file);
+
+        assertEquals(this.src.toPath(), Files.readSymbolicLink(this.file.toPath()));
+    }
+
+    @Test
+    public void copiesAreStored() throws Exception {
+        final ContentStore store = new ContentStore(Platform.aPlatform(), this.folder.newFolder("store"));
+
+        new FileMirror(Platform.aPlatform(), "copy", store).mirror(this.src, this.file);
+
+        assertEquals("86f7e437faa5a7fce15d1ddcb9eaeaea377667b8", store.checksumOf(this.file).getValue());
+        assertEquals(this.src.lastModified(), this.file.lastModified());
+    }
+
+    private static void write(final File file, final String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSystemTest extends Assert {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void clearProperties() {
+        System.clearProperty("FileSystem.threads");
+    }
+
+    @Test
+    public void legalDocumentsAreIndexedInOneWalk() throws Exception {
+        final File contents = this.folder.newFolder("foo.war.contents");
+        final File license = touch(contents, "META-INF/LICENSE");
+        final File notice = touch(contents, "META-INF/NOTICE.txt");
+        final File nestedLicense = touch(contents, "WEB-INF/lib/bar.jar.contents/META-INF/LICENSE.txt");
+        touch(contents, "WEB-INF/classes/Foo.class");
+
+        final LegalDocumentIndex index = new FileSystem().legalDocumentsIn(contents);
+
+        assertEquals(Arrays.asList(license, nestedLicense), sorted(index.getLicenses()));
+        assertEquals(Collections.singletonList(notice), index.getNotices());
+        assertEquals(Collections.singletonList(license), index.getDeclaredLicenses());
+        assertEquals(Collections.singletonList(notice), index.getDeclaredNotices());
+        assertEquals(Arrays.asList(license, notice), sorted(index.getDeclared()));
+        assertEquals(Collections.singletonList(nestedLicense), index.getUndeclared());
+    }
+
+    @Test
+    public void parallelTraversalCollectsInNameOrder() throws Exception {
+        final File root = this.folder.newFolder("content");
+        for (final String path : new String[] {"b/2.txt", "a/c/3.txt", "c.txt", "a/1.txt", "b/a.jar.contents/NOTICE"}) {
+            touch(root, path);
+        }
+        System.setProperty("FileSystem.threads", "4");
+
+        final FileSystem fileSystem = new FileSystem();
+        final List<File> files = fileSystem.collect(root, File::isFile);
+
+        assertEquals(Arrays.asList(new File(root, "a/1.txt"), new File(root, "a/c/3.txt"), new File(root, "b/2.txt"),
+                new File(root, "b/a.jar.contents/NOTICE"), new File(root, "c.txt")), files);
+        assertEquals(Collections.singletonList(new File(root, "b/a.jar.contents/NOTICE")),
+                fileSystem.legalDocumentsIn(root).getUndeclared());
+    }
+
+    @Test
+    public void rejectedDirectoriesAreNotWalked() throws Exception {
+        final File root = this.folder.newFolder("repo");
+        final File kept = touch(root, "org/a/a-1.0.jar");
+        touch(root, "org/b/b-1.0.jar");
+        touch(root, "org/b/nested/b-nested-1.0.jar");
+        final List<File> asked = new ArrayList<>();
+
+        final List<File> files = new FileSystem().collect(root, File::isFile, dir -> {
+            asked.add(dir);
+            return !dir.getName().equals("b");
+        });
+
+        assertEquals(Collections.singletonList(kept), files);
+        assertTrue(asked.contains(new File(root, "org/b")));
+        assertFalse(asked.contains(new File(root, "org/b/nested")));
+    }
+
+    @Test
+    public void symlinkLoopsAreSkipped() throws Exception {
+        final File root = this.folder.newFolder("repo");
+        final File file = touch(root, "org/a/a-1.0.jar");
+        Files.createSymbolicLink(new File(root, "org/a/loop").toPath(), root.toPath());
+
+        final List<File> files = new FileSystem().collect(root, File::isFile);
+
+        assertEquals(Collections.singletonList(file), files);
+    }
+
+    @Test
+    public void filtersSeeTheAttributesOfTheWalk() throws Exception {
+        final File root = this.folder.newFolder("repo");
+        final File file = touch(root, "org/a/a-1.0.jar");
+        final long length = file.length();
+        final List<File> seen = new ArrayList<>();
+
+        new FileSystem().collect(root, candidate -> {
+            if (candidate.getName().equals(file.getName())) {
+                // answered without asking the file system again
+                assertTrue(candidate.delete());
+                assertTrue(candidate.isFile());
+                assertEquals(length, candidate.length());
+                seen.add(candidate);
+            }
+            return false;
+        });
+
+        assertEquals(1, seen.size());
+    }
+
+    private static File touch(final File dir, final String path) throws IOException {
+        final File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), path.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static <T extends Comparable<T>> List<T> sorted(final List<T> list) {
+        final List<T> sorted = new ArrayList<>(list);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class NexusClientTest extends Assert {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, String> pages = new HashMap<>();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final Map<String, Integer> unavailable = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private URI root;
+
+    @Before
+    public void start() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", exchange -> {
+            final String path = exchange.getRequestURI().getPath();
+            final String query = exchange.getRequestURI().getRawQuery();
+            final String page = this.pages.get(query == null ? path : path + "?" + query);
+            final String etag = page == null ? null : "\"" + page.hashCode() + "\"";
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            this.requests.add(exchange.getRequestMethod() + " " + path + (range == null ? "" : " " + range));
+
+            final Integer failures = this.unavailable.computeIfPresent(path, (p, n) -> n - 1);
+            if (failures != null && failures >= 0) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+
+            if (etag != null && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            byte[] body = page == null ? new byte[0] : page.getBytes(StandardCharsets.UTF_8);
+            int status = page == null ? 404 : 200;
+            if (etag != null) {
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            }
+
+            if (page != null && range != null) {
+                final String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                final int start = Integer.parseInt(bounds[0]);
+                final int end = bounds[1].isEmpty() ? body.length - 1 : Integer.parseInt(bounds[1]);
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + body.length);
+                body = Arrays.copyOfRange(body, start, end + 1);
+                status = 206;
+            }
+
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        this.server.start();
+        this.root = URI.create("http://127.0.0.1:" + this.server.getAddress().getPort() + "/repo/");
+
+        index("/repo/", "../", "org/", "archetype-catalog.xml");
+        index("/repo/org/", "../", "a/", "b/", "c/");
+        index("/repo/org/a/", "../", "a-1.0.jar", "a-1.0.jar.sha1");
+        index("/repo/org/b/", "../", "nested/", "b-1.0.zip");
+        index("/repo/org/b/nested/", "../", "b-nested-1.0.war");
+        index("/repo/org/c/", "../", "c-1.0.pom");
+        this.pages.put("/repo/org/a/a-1.0.jar", "a");
+        this.pages.put("/repo/org/a/a-1.0.jar.sha1", "86f7e437faa5a7fce15d1ddcb9eaeaea377667b8  a-1.0.jar");
+        this.pages.put("/repo/org/b/b-1.0.zip", "b");
+        this.pages.put("/repo/org/b/nested/b-nested-1.0.war", "nested");
+    }
+
+    @After
+    public void stop() {
+        this.server.stop(0);
+        System.clearProperty("NexusClient.crawlThreads");
+        System.clearProperty("NexusClient.downloadThreads");
+        System.clearProperty("NexusClient.segments");
+        System.clearProperty("NexusClient.segmentThreshold");
+        System.clearProperty("NexusClient.backoff");
+        System.clearProperty("NexusClient.retries");
+    }
+
+    @Test
+    public void crawlListsResourcesDepthFirst() throws Exception {
+        final List<URI> resources = new ArrayList<>(new NexusClient(Platform.aPlatform()).crawl(this.root));
+
+        assertEquals(6, resources.size());
+        assertEquals(this.root.resolve("archetype-catalog.xml"), resources.get(0));
+        assertEquals(this.root.resolve("org/a/a-1.0.jar"), resources.get(1));
+        assertEquals(this.root.resolve("org/b/b-1.0.zip"), resources.get(3));
+        assertEquals(this.root.resolve("org/b/nested/b-nested-1.0.war"), resources.get(4));
+        assertEquals(this.root.resolve("org/c/c-1.0.pom"), resources.get(5));
+    }
+
+    @Test
+    public void crawlDoesNotListPrunedDirectories() throws Exception {
+        index("/repo/org/a/", "../", "a-1.0.jar", "a-1.0.jar.sha1", "a-1.0-javadoc.jar");
+        final PathRules rules = new PathRules("org/**", "**/nested/**", "javadoc", "pom");
+
+        final Set<URI> resources = new NexusClient(Platform.aPlatform()).crawl(this.root, rules);
+
+        assertEquals(new HashSet<>(Arrays.asList(this.root.resolve("org/a/a-1.0.jar"),
+                this.root.resolve("org/a/a-1.0.jar.sha1"), this.root.resolve("org/b/b-1.0.zip"))), resources);
+        assertFalse(this.requests.contains("GET /repo/org/b/nested/"));
+    }
+
+    @Test
+    public void deadDirectoryLinksAreSkipped() throws Exception {
+        index("/repo/org/", "../", "a/", "gone/");
+
+        final Set<URI> resources = new NexusClient(Platform.aPlatform()).crawl(this.root);
+
+        assertTrue(this.requests.contains("GET /repo/org/gone/"));
+        assertTrue(resources.contains(this.root.resolve("org/a/a-1.0.jar")));
+    }
+
+    @Test
+    public void nexus3RepositoriesAreListedWithTheAssetsApi() throws Exception {
+        this.pages.put("/service/rest/v1/assets?repository=staging",
+                "{\"items\": [{\"path\": \"/org/a/a-1.0.jar\"}, {\"path\": \"/org/a/a-1.0-javadoc.jar\"}],"
+                        + " \"continuationToken\": \"88491cd1d185dd13\"}");
+        this.pages.put("/service/rest/v1/assets?repository=staging&continuationToken=88491cd1d185dd13",
+                "{\"items\": [{\"path\": \"org/b/b-1.0.zip\"}], \"continuationToken\": null}");
+        final URI staging = this.root.resolve("/repository/staging/");
+
+        final Set<URI> resources = new NexusClient(Platform.aPlatform())
+                .crawl(staging, new PathRules("", "", "javadoc", ""));
+
+        assertEquals(Arrays.asList(staging.resolve("org/a/a-1.0.jar"), staging.resolve("org/b/b-1.0.zip")),
+                new ArrayList<>(resources));
+        assertEquals(Arrays.asList("GET /service/rest/v1/assets", "GET /service/rest/v1/assets"), this.requests);
+    }
+
+    @Test
+    public void indexPagesAreCrawledWithoutAssetsApi() throws Exception {
+        index("/repository/staging/", "../", "c-1.0.jar");
+        final URI staging = this.root.resolve("/repository/staging/");
+
+        final Set<URI> resources = new NexusClient(Platform.aPlatform()).crawl(staging);
+
+        assertEquals(Collections.singleton(staging.resolve("c-1.0.jar")), resources);
+    }
+
+    @Test
+    public void concurrentCrawlKeepsSequentialOrder() throws Exception {
+        final List<URI> sequential = new ArrayList<>(new NexusClient(Platform.aPlatform()).crawl(this.root));
+
+        System.setProperty("NexusClient.crawlThreads", "4");
+        final List<URI> concurrent = new ArrayList<>(new NexusClient(Platform.aPlatform()).crawl(this.root));
+
+        assertEquals(sequential, concurrent);
+    }
+
+    @Test
+    public void concurrentDownloadsMirrorEveryResource() throws Exception {
+        System.setProperty("NexusClient.downloadThreads", "3");
+        final File mirror = this.folder.getRoot();
+        final List<URI> uris = Arrays.asList(this.root.resolve("org/a/a-1.0.jar"),
+                this.root.resolve("org/b/b-1.0.zip"), this.root.resolve("org/b/nested/b-nested-1.0.war"));
+
+        final List<File> files = new ArrayList<>(new NexusClient(Platform.aPlatform())
+                .download(uris, uri -> new File(mirror, this.root.relativize(uri).getPath())));
+
+        assertEquals(3, files.size());
+        assertEquals("a", new String(Files.readAllBytes(files.get(0).toPath()), StandardCharsets.UTF_8));
+        assertEquals("b", new String(Files.readAllBytes(files.get(1).toPath()), StandardCharsets.UTF_8));
+        assertEquals("nested", new String(Files.readAllBytes(files.get(2).toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void unchangedResourcesAreRevalidated() throws Exception {
+        final URI uri = this.root.resolve("org/a/a-1.0.jar");
+        final File file = new File(this.folder.getRoot(), "a-1.0.jar");
+        final MirrorManifest manifest = new MirrorManifest();
+
+        new NexusClient(Platform.aPlatform(), manifest).download(uri, file);
+        assertNotNull(manifest.get(uri).getEtag());
+        this.requests.clear();
+
+        new NexusClient(Platform.aPlatform(), manifest).download(uri, file);
+        assertEquals(Arrays.asList("GET /repo/org/a/a-1.0.jar"), this.requests);
+        assertEquals(1, file.length());
+    }
+
+    @Test
+    public void checksumSidecarSkipsVerifiedFiles() throws Exception {
+        final URI uri = this.root.resolve("org/a/a-1.0.jar");
+        final Set<URI> sidecars = new HashSet<>(Arrays.asList(uri, this.root.resolve("org/a/a-1.0.jar.sha1")));
+        final File file = new File(this.folder.getRoot(), "a-1.0.jar");
+        final MirrorManifest manifest = new MirrorManifest();
+
+        new NexusClient(Platform.aPlatform(), manifest).download(Collections.singleton(uri), sidecars, u -> file);
+        assertEquals("86f7e437faa5a7fce15d1ddcb9eaeaea377667b8", manifest.get(uri).digest(ChecksumType.SHA1));
+        this.requests.clear();
+
+        new NexusClient(Platform.aPlatform(), manifest).download(Collections.singleton(uri), sidecars, u -> file);
+        assertEquals(Arrays.asList("GET /repo/org/a/a-1.0.jar.sha1"), this.requests);
+    }
+
+    @Test
+    public void contentStoreIsSharedBetweenRuns() throws Exception {
+        final URI uri = this.root.resolve("org/a/a-1.0.jar");
+        final Set<URI> sidecars = Collections.singleton(this.root.resolve("org/a/a-1.0.jar.sha1"));
+        final ContentStore store = new ContentStore(Platform.aPlatform(), this.folder.newFolder("store"));
+        final File first = new File(this.folder.newFolder("orgapachefoo-1000"), "a-1.0.jar");
+        final File second = new File(this.folder.newFolder("orgapachefoo-1001"), "a-1.0.jar");
+
+        new NexusClient(Platform.aPlatform(), new MirrorManifest(), store)
+                .download(Collections.singleton(uri), sidecars, u -> first);
+        this.requests.clear();
+
+        new NexusClient(Platform.aPlatform(), new MirrorManifest(), store)
+                .download(Collections.singleton(uri), sidecars, u -> second);
+
+        assertEquals(Arrays.asList("GET /repo/org/a/a-1.0.jar.sha1"), this.requests);
+        assertEquals("a", new String(Files.readAllBytes(second.toPath()), StandardCharsets.UTF_8));
+        assertNotNull(store.checksumOf(second));
+    }
+
+    @Test
+    public void contentStoreIsNotKeyedOnMd5() throws Exception {
+        this.pages.put("/repo/org/a/a-1.0.jar.md5", "0cc175b9c0f1b6a831c399e269772661");
+        final URI uri = this.root.resolve("org/a/a-1.0.jar");
+        final Set<URI> sidecars = Collections.singleton(this.root.resolve("org/a/a-1.0.jar.md5"));
+        final ContentStore store = new ContentStore(Platform.aPlatform(), this.folder.newFolder("store"));
+        final File first = new File(this.folder.newFolder("orgapachefoo-1000"), "a-1.0.jar");
+        final File second = new File(this.folder.newFolder("orgapachefoo-1001"), "a-1.0.jar");
+
+        new NexusClient(Platform.aPlatform(), new MirrorManifest(), store)
+                .download(Collections.singleton(uri), sidecars, u -> first);
+        this.requests.clear();
+
+        new NexusClient(Platform.aPlatform(), new MirrorManifest(), store)
+                .download(Collections.singleton(uri), sidecars, u -> second);
+
+        assertEquals(Arrays.asList("GET /repo/org/a/a-1.0.jar.md5", "GET /repo/org/a/a-1.0.jar"), this.requests);
+        assertEquals(ChecksumType.SHA1, store.checksumOf(first).getType());
+        assertEquals("86f7e437faa5a7fce15d1ddcb9eaeaea377667b8", store.checksumOf(first).getValue());
+    }
+
+    @Test
+    public void checksumMismatchFailsTheDownload() throws Exception {
+        this.pages.put("/repo/org/a/a-1.0.jar.sha1", "0000000000000000000000000000000000000000");
+        final URI uri = this.root.resolve("org/a/a-1.0.jar");
+        final Set<URI> sidecars = Collections.singleton(this.root.resolve("org/a/a-1.0.jar.sha1"));
+        final File file = new File(this.folder.getRoot(), "a-1.0.jar");
+
+        try {
+            new NexusClient(Platform.aPlatform()).download(Collections.singleton(uri), sidecars, u -> file);
+            fail("corrupt download accepted");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("Checksum mismatch"));
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void partialDownloadsAreResumed() throws Exception {
+        this.pages.put("/repo/org/b/b-1.0.zip", "0123456789");
+        final URI uri = this.root.resolve("org/b/b-1.0.zip");
+        final File file = new File(this.folder.getRoot(), "b-1.0.zip");
+        final File part = new File(file.getPath() + ".part");
+        Files.write(part.toPath(), "0123".getBytes(StandardCharsets.UTF_8));
+        new MirrorManifest().savePart(part,
+                new MirrorManifest.Entry("\"" + "0123456789".hashCode() + "\"", null, 10));
+
+        new NexusClient(Platform.aPlatform()).download(uri, file);
+
+        assertEquals(Arrays.asList("GET /repo/org/b/b-1.0.zip bytes=4-"), this.requests);
+        assertEquals("0123456789", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertFalse(part.exists());
+        assertFalse(new File(part.getPath() + ".json").exists());
+    }
+
+    @Test
+    public void partsOfUnknownOriginAreDownloadedAgain() throws Exception {
+        this.pages.put("/repo/org/b/b-1.0.zip", "0123456789");
+        final URI uri = this.root.resolve("org/b/b-1.0.zip");
+        final File file = new File(this.folder.getRoot(), "b-1.0.zip");
+        Files.write(new File(file.getPath() + ".part").toPath(), "abcd".getBytes(StandardCharsets.UTF_8));
+
+        new NexusClient(Platform.aPlatform()).download(uri, file);
+
+        assertEquals(Arrays.asList("GET /repo/org/b/b-1.0.zip"), this.requests);
+        assertEquals("0123456789", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shorterFilesAreNotTakenForPrefixes() throws Exception {
+        this.pages.put("/repo/org/b/b-1.0.zip", "0123456789");
+        final URI uri = this.root.resolve("org/b/b-1.0.zip");
+        final File file = new File(this.folder.getRoot(), "b-1.0.zip");
+        Files.write(file.toPath(), "abcd".getBytes(StandardCharsets.UTF_8));
+
+        new NexusClient(Platform.aPlatform()).download(uri, file);
+
+        assertEquals(Arrays.asList("HEAD /repo/org/b/b-1.0.zip", "GET /repo/org/b/b-1.0.zip"), this.requests);
+        assertEquals("0123456789", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void largeDownloadsAreSegmented() throws Exception {
+        System.setProperty("NexusClient.segments", "3");
+        System.setProperty("NexusClient.segmentThreshold", "5");
+        this.pages.put("/repo/org/b/b-1.0.zip", "0123456789");
+        final URI uri = this.root.resolve("org/b/b-1.0.zip");
+        final File file = new File(this.folder.getRoot(), "b-1.0.zip");
+
+        new NexusClient(Platform.aPlatform()).download(uri, file);
+
+        assertTrue(this.requests.containsAll(Arrays.asList("GET /repo/org/b/b-1.0.zip bytes=0-3",
+                "GET /repo/org/b/b-1.0.zip bytes=4-7", "GET /repo/org/b/b-1.0.zip bytes=8-9")));
+        assertEquals("0123456789", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void temporaryFailuresAreRetried() throws Exception {
+        System.setProperty("NexusClient.backoff", "1");
+        this.unavailable.put("/repo/org/a/a-1.0.jar", 2);
+        final File file = new File(this.folder.getRoot(), "a-1.0.jar");
+        final NexusClient client = new NexusClient(Platform.aPlatform());
+
+        client.download(this.root.resolve("org/a/a-1.0.jar"), file);
+
+        assertEquals(3, this.requests.size());
+        assertTrue(client.getRetryPolicy().getRetries() >= 2);
+        assertEquals(1, file.length());
+    }
+
+    @Test
+    public void retriesAreBounded() throws Exception {
+        System.setProperty("NexusClient.backoff", "1");
+        System.setProperty("NexusClient.retries", "2");
+        this.unavailable.put("/repo/", 100);
+        final NexusClient client = new NexusClient(Platform.aPlatform());
+
+        try {
+            client.crawl(this.root);
+            fail("unavailable repository listed as empty");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("503"));
+        }
+        assertEquals(2, client.getRetryPolicy().getRetries());
+        assertTrue(this.requests.size() <= 3);
+    }
+
+    @Test
+    public void failedDownloadsAreNotMirrored() throws Exception {
+        System.setProperty("NexusClient.backoff", "1");
+        System.setProperty("NexusClient.retries", "0");
+        this.unavailable.put("/repo/org/a/a-1.0.jar", 100);
+        final URI uri = this.root.resolve("org/a/a-1.0.jar");
+        final File file = new File(this.folder.getRoot(), "a-1.0.jar");
+        final MirrorManifest manifest = new MirrorManifest();
+
+        try {
+            new NexusClient(Platform.aPlatform(), manifest).download(uri, file);
+            fail("error page mirrored");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("503"));
+        }
+        assertFalse(file.exists());
+        assertNull(manifest.get(uri));
+    }
+
+    private void index(final String path, final String... names) {
+        final StringBuilder html = new StringBuilder("<html><body><table>\n");
+        for (final String name : names) {
+            html.append("<tr><td><a href=\"").append(name).append("\">").append(name).append("</a></td></tr>\n");
+        }
+        this.pages.put(path, html.append("</table></body></html>").toString());
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.creadur.tentacles;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UnpackerTest extends Assert {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Layout layout;
+    private Unpacker unpacker;
+    private File contents;
+
+    @Before
+    public void setUp() throws Exception {
+        final Platform platform = Platform.aPlatform();
+        this.layout = new Layout(platform, new Configuration("http://localhost/repo/",
+                this.folder.getRoot().getAbsolutePath()));
+        this.unpacker = new Unpacker(platform, this.layout);
+        this.contents = new File(this.layout.getContentRootDirectory(), "org/foo/foo-1.0.war.contents");
+    }
+
+    @After
+    public void clearProperties() {
+        System.clearProperty("Unpacker.extract");
+        System.clearProperty("Unpacker.nestedBufferSize");
+        System.clearProperty("Unpacker.threads");
+        System.clearProperty("Unpacker.maxEntries");
+        System.clearProperty("Unpacker.maxDepth");
+    }
+
+    @Test
+    public void unpackExtractsEveryEntry() throws Exception {
+        final File war = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.war");
+        war.getParentFile().mkdirs();
+        Files.write(war.toPath(), war());
+
+        this.unpacker.unpack(war);
+
+        assertTrue(new File(this.contents, "META-INF/LICENSE").isFile());
+        assertTrue(new File(this.contents, "WEB-INF/classes/Foo.class").isFile());
+        assertTrue(new File(this.contents, "WEB-INF/lib/bar.jar").isFile());
+        assertTrue(new File(this.contents, "WEB-INF/lib/bar.jar.contents/META-INF/NOTICE").isFile());
+        assertTrue(new File(this.contents, "WEB-INF/lib/bar.jar.contents/Bar.class").isFile());
+    }
+
+    @Test
+    public void parallelUnpackingIsolatesBrokenArchives() throws Exception {
+        System.setProperty("Unpacker.threads", "4");
+        final File war = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.war");
+        final File broken = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.zip");
+        war.getParentFile().mkdirs();
+        Files.write(war.toPath(), war());
+        Files.write(broken.toPath(), "PK\3\4 truncated".getBytes(StandardCharsets.UTF_8));
+
+        new Unpacker(Platform.aPlatform(), this.layout).unpack(Arrays.asList(broken, war));
+
+        assertTrue(new File(this.contents, "META-INF/LICENSE").isFile());
+        assertTrue(new File(this.contents, "WEB-INF/classes/Foo.class").isFile());
+        assertTrue(new File(this.contents, "WEB-INF/lib/bar.jar.contents/META-INF/NOTICE").isFile());
+        assertTrue(new File(this.contents, "WEB-INF/lib/bar.jar.contents/Bar.class").isFile());
+    }
+
+    @Test
+    public void archivesExceedingTheLimitsAreTruncated() throws Exception {
+        System.setProperty("Unpacker.maxEntries", "2");
+        final File war = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.war");
+        war.getParentFile().mkdirs();
+        Files.write(war.toPath(), war());
+
+        final Unpacker unpacker = new Unpacker(Platform.aPlatform(), this.layout);
+        unpacker.unpack(war);
+
+        assertTrue(new File(this.contents, "META-INF/LICENSE").isFile());
+        assertFalse(new File(this.contents, "WEB-INF/lib/bar.jar.contents/Bar.class").exists());
+        assertEquals("more than 2 entries", unpacker.getTruncated().get(war));
+    }
+
+    @Test
+    public void nestingIsLimited() throws Exception {
+        System.setProperty("Unpacker.maxDepth", "0");
+        final File war = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.war");
+        war.getParentFile().mkdirs();
+        Files.write(war.toPath(), war());
+
+        final Unpacker unpacker = new Unpacker(Platform.aPlatform(), this.layout);
+        unpacker.unpack(war);
+
+        assertTrue(new File(this.contents, "WEB-INF/lib/bar.jar").isFile());
+        assertFalse(new File(this.contents, "WEB-INF/lib/bar.jar.contents").exists());
+        assertNotNull(unpacker.getTruncated().get(war));
+    }
+
+    @Test
+    public void entriesOutsideOfTheContentsAreSkipped() throws Exception {
+        final File zip = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.zip");
+        zip.getParentFile().mkdirs();
+        Files.write(zip.toPath(), zip("../../../../evil.txt", new byte[] {1}, "LICENSE", new byte[] {2}));
+
+        this.unpacker.unpack(zip);
+
+        assertTrue(new File(this.layout.getContentRootDirectory(), "org/foo/foo-1.0.zip.contents/LICENSE").isFile());
+        assertFalse(new File(this.layout.getLocalRootDirectory(), "evil.txt").exists());
+    }
+
+    @Test
+    public void largeNestedJarsAreUnpackedFromDisk() throws Exception {
+        System.setProperty("Unpacker.nestedBufferSize", "16");
+        final File war = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.war");
+        war.getParentFile().mkdirs();
+        Files.write(war.toPath(), war());
+
+        new Unpacker(Platform.aPlatform(), this.layout).unpack(war);
+
+        assertTrue(new File(this.contents, "META-INF/LICENSE").isFile());
+        assertTrue(new File(this.contents, "WEB-INF/classes/Foo.class").isFile());
+        assertTrue(new File(this.contents, "WEB-INF/lib/bar.jar").isFile());
+        assertTrue(new File(this.contents, "WEB-INF/lib/bar.jar.contents/META-INF/NOTICE").isFile());
+        assertTrue(new File(this.contents, "WEB-INF/lib/bar.jar.contents/Bar.class").isFile());
+    }
+
+    @Test
+    public void legalExtractionOnlyWritesLegalDocuments() throws Exception {
+        System.setProperty("Unpacker.extract", "legal");
+        final File war = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.war");
+        war.getParentFile().mkdirs();
+        Files.write(war.toPath(), war());
+
+        new Unpacker(Platform.aPlatform(), this.layout).unpack(war);
+
+        assertTrue(new File(this.contents, "META-INF/LICENSE").isFile());
+        assertTrue(new File(this.contents, "WEB-INF/lib/bar.jar.contents/META-INF/NOTICE").isFile());
+        assertFalse(new File(this.contents, "WEB-INF/classes/Foo.class").exists());
+        assertFalse(new File(this.contents, "WEB-INF/lib/bar.jar").exists());
+    }
+
+    @Test
+    public void sourceTarballsAreUnpacked() throws Exception {
+        System.setProperty("Unpacker.extract", "legal");
+        final File tarball = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0-src.tar.gz");
+        tarball.getParentFile().mkdirs();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(Files.newOutputStream(tarball.toPath())))) {
+            add(tar, "foo-1.0/LICENSE", "license".getBytes(StandardCharsets.UTF_8));
+            add(tar, "foo-1.0/src/Foo.java", "class Foo {}".getBytes(StandardCharsets.UTF_8));
+            add(tar, "foo-1.0/lib/bar.jar", zip("META-INF/NOTICE", "notice".getBytes(StandardCharsets.UTF_8)));
+        }
+
+        new Unpacker(Platform.aPlatform(), this.layout).unpack(tarball);
+
+        final File contents = new File(this.layout.getContentRootDirectory(), "org/foo/foo-1.0-src.tar.gz.contents");
+        assertTrue(new File(contents, "foo-1.0/LICENSE").isFile());
+        assertTrue(new File(contents, "foo-1.0/lib/bar.jar.contents/META-INF/NOTICE").isFile());
+        assertFalse(new File(contents, "foo-1.0/src/Foo.java").exists());
+    }
+
+    @Test
+    public void contentStoreSharesExtractedContents() throws Exception {
+        final ContentStore store = new ContentStore(Platform.aPlatform(), this.folder.newFolder("store"));
+        final Checksum checksum = new Checksum(ChecksumType.SHA1, "86f7e437faa5a7fce15d1ddcb9eaeaea377667b8");
+        final File war = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.war");
+        war.getParentFile().mkdirs();
+        Files.write(war.toPath(), war());
+        store.put(checksum, war);
+
+        new Unpacker(Platform.aPlatform(), this.layout, store).unpack(war);
+
+        final Layout other = new Layout(Platform.aPlatform(), new Configuration("http://localhost/repo/",
+                this.folder.newFolder("other").getAbsolutePath()));
+        final File copy = new File(other.getRepositoryDirectory(), "org/foo/foo-1.0.war");
+        assertTrue(store.fetch(checksum, copy));
+        // not a zip, so the contents can only have come from the store
+        Files.write(copy.toPath(), new byte[0]);
+
+        new Unpacker(Platform.aPlatform(), other, store).unpack(copy);
+
+        final File contents = new File(other.getContentRootDirectory(), "org/foo/foo-1.0.war.contents");
+        assertTrue(new File(contents, "META-INF/LICENSE").isFile());
+        assertTrue(new File(contents, "WEB-INF/lib/bar.jar.contents/META-INF/NOTICE").isFile());
+    }
+
+    @Test
+    public void currentContentsAreNotUnpackedAgain() throws Exception {
+        final File war = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.war");
+        war.getParentFile().mkdirs();
+        Files.write(war.toPath(), war());
+        this.unpacker.unpack(war);
+        final File classFile = new File(this.contents, "WEB-INF/classes/Foo.class");
+        assertTrue(classFile.delete());
+
+        this.unpacker.unpack(war);
+        assertFalse(classFile.exists());
+
+        assertTrue(war.setLastModified(war.lastModified() - 60000));
+        this.unpacker.unpack(war);
+        assertTrue(classFile.isFile());
+        assertTrue(new File(this.contents, "WEB-INF/lib/bar.jar.contents/Bar.class").isFile());
+        assertEquals(1, this.contents.getParentFile().list().length);
+    }
+
+    @Test
+    public void nestedArchivesAreUnpackedWhateverTheirName() throws Exception {
+        System.setProperty("Unpacker.extract", "legal");
+        final File ear = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.ear");
+        ear.getParentFile().mkdirs();
+        Files.write(ear.toPath(), zip("foo.war", war(),
+                "lib/data.bin", zip("NOTICE", "notice".getBytes(StandardCharsets.UTF_8)),
+                "lib/broken.jar", "not a jar".getBytes(StandardCharsets.UTF_8)));
+
+        new Unpacker(Platform.aPlatform(), this.layout).unpack(ear);
+
+        final File contents = new File(this.layout.getContentRootDirectory(), "org/foo/foo-1.0.ear.contents");
+        assertTrue(new File(contents, "foo.war.contents/META-INF/LICENSE").isFile());
+        assertTrue(new File(contents, "foo.war.contents/WEB-INF/lib/bar.jar.contents/META-INF/NOTICE").isFile());
+        assertTrue(new File(contents, "lib/data.bin.contents/NOTICE").isFile());
+        assertFalse(new File(contents, "lib/broken.jar.contents").exists());
+    }
+
+    @Test
+    public void jarsNestedInSeveralArchivesAreUnpackedOnce() throws Exception {
+        final File war = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.war");
+        final File other = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0-other.war");
+        war.getParentFile().mkdirs();
+        Files.write(war.toPath(), war());
+        Files.write(other.toPath(), war());
+        final ContentStore store = new ContentStore(Platform.aPlatform(), this.folder.newFolder("store"));
+
+        new Unpacker(Platform.aPlatform(), this.layout, store).unpack(Arrays.asList(war, other));
+
+        final File notice = new File(this.contents, "WEB-INF/lib/bar.jar.contents/META-INF/NOTICE");
+        final File shared = new File(this.layout.getContentRootDirectory(),
+                "org/foo/foo-1.0-other.war.contents/WEB-INF/lib/bar.jar.contents/META-INF/NOTICE");
+        assertTrue(notice.isFile());
+        assertTrue(shared.isFile());
+        assertTrue(Files.isSameFile(notice.toPath(), shared.toPath()));
+    }
+
+    @Test
+    public void legalExtractionReadsTheCentralDirectory() throws Exception {
+        System.setProperty("Unpacker.extract", "legal");
+        final File zip = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.zip");
+        final File contents = new File(this.layout.getContentRootDirectory(), "org/foo/foo-1.0.zip.contents");
+        zip.getParentFile().mkdirs();
+        Files.write(zip.toPath(), renameLocally(zip("META-INF/LICENSE", "license".getBytes(StandardCharsets.UTF_8)),
+                "META-INF/LICENSE", "META-INF/LICENCE"));
+
+        new Unpacker(Platform.aPlatform(), this.layout).unpack(zip);
+
+        assertTrue(new File(contents, "META-INF/LICENSE").isFile());
+        assertFalse(new File(contents, "META-INF/LICENCE").exists());
+        assertTrue(new File(contents, ".tentacles-unpacked").isFile());
+    }
+
+    @Test
+    public void corruptEntriesAreNotReadAgainSequentially() throws Exception {
+        System.setProperty("Unpacker.extract", "legal");
+        final File zip = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.zip");
+        final File contents = new File(this.layout.getContentRootDirectory(), "org/foo/foo-1.0.zip.contents");
+        zip.getParentFile().mkdirs();
+        final byte[] bytes = renameLocally(zip("META-INF/LICENSE", "license".getBytes(StandardCharsets.UTF_8),
+                "META-INF/NOTICE", "notice".getBytes(StandardCharsets.UTF_8)), "META-INF/LICENSE", "META-INF/LICENCE");
+        // an invalid deflate block type
+        bytes[dataOf(bytes, "META-INF/NOTICE")] = (byte) 0xff;
+        Files.write(zip.toPath(), bytes);
+
+        new Unpacker(Platform.aPlatform(), this.layout).unpack(zip);
+
+        assertTrue(new File(contents, "META-INF/LICENSE").isFile());
+        assertFalse(new File(contents, "META-INF/LICENCE").exists());
+        assertFalse(new File(contents, ".tentacles-unpacked").exists());
+    }
+
+    @Test
+    public void scanOnlyExtractsLegalDocuments() throws Exception {
+        final File war = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.war");
+
+        this.unpacker.scan(new ByteArrayInputStream(war()), war);
+
+        assertFalse(war.exists());
+        assertEquals("license", new String(Files.readAllBytes(new File(this.contents, "META-INF/LICENSE").toPath()),
+                StandardCharsets.UTF_8));
+        assertTrue(new File(this.contents, "WEB-INF/lib/bar.jar.contents/META-INF/NOTICE").isFile());
+        assertFalse(new File(this.contents, "WEB-INF/classes/Foo.class").exists());
+        assertFalse(new File(this.contents, "WEB-INF/lib/bar.jar").exists());
+        assertFalse(new File(this.contents, "WEB-INF/lib/bar.jar.contents/Bar.class").exists());
+    }
+
+    @Test
+    public void scanReplacesEarlierContents() throws Exception {
+        final File war = new File(this.layout.getRepositoryDirectory(), "org/foo/foo-1.0.war");
+        final File stored = this.folder.newFile("stored");
+        Files.write(stored.toPath(), "stored".getBytes(StandardCharsets.UTF_8));
+        final File license = new File(this.contents, "META-INF/LICENSE");
+        license.getParentFile().mkdirs();
+        Files.createLink(license.toPath(), stored.toPath());
+        Files.write(new File(this.contents, "NOTICE").toPath(), "stale".getBytes(StandardCharsets.UTF_8));
+
+        this.unpacker.scan(new ByteArrayInputStream(war()), war);
+
+        assertEquals("license", new String(Files.readAllBytes(license.toPath()), StandardCharsets.UTF_8));
+        assertEquals("stored", new String(Files.readAllBytes(stored.toPath()), StandardCharsets.UTF_8));
+        assertFalse(new File(this.contents, "NOTICE").exists());
+    }
+
+    private static void add(final TarArchiveOutputStream tar, final String name, final byte[] content)
+            throws IOException {
+        final TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(content.length);
+        tar.putArchiveEntry(entry);
+        tar.write(content);
+        tar.closeArchiveEntry();
+    }
+
+    /**
+     * @return the zip with the name in the local header of an entry changed,
+     *         but not the one in the central directory
+     */
+    private static byte[] renameLocally(final byte[] zip, final String name, final String local) {
+        final int offset = indexOf(zip, name);
+        final byte[] replacement = local.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(replacement, 0, zip, offset, replacement.length);
+        return zip;
+    }
+
+    /**
+     * @return where the data of the first entry of that name starts
+     */
+    private static int dataOf(final byte[] zip, final String name) {
+        final int header = indexOf(zip, name) - 30;
+        final int nameLength = (zip[header + 26] & 0xff) | (zip[header + 27] & 0xff) << 8;
+        final int extraLength = (zip[header + 28] & 0xff) | (zip[header + 29] & 0xff) << 8;
+        return header + 30 + nameLength + extraLength;
+    }
+
+    private static int indexOf(final byte[] bytes, final String text) {
+        final byte[] searched = text.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i + searched.length <= bytes.length; i++) {
+            if (Arrays.equals(searched, Arrays.copyOfRange(bytes, i, i + searched.length))) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(text);
+    }
+
+    private static byte[] war() throws IOException {
+        return zip("META-INF/LICENSE", "license".getBytes(StandardCharsets.UTF_8),
+                "WEB-INF/classes/Foo.class", new byte[] {(byte) 0xca, (byte) 0xfe},
+                "WEB-INF/lib/bar.jar", zip("META-INF/NOTICE", "notice".getBytes(StandardCharsets.UTF_8),
+                        "Bar.class", new byte[] {(byte) 0xca, (byte) 0xfe}));
+    }
+
+    private static byte[] zip(final Object... entries) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < entries.length; i += 2) {
+                zip.putNextEntry(new ZipEntry((String) entries[i]));
+                zip.write((byte[]) entries[i + 1]);
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -33,4 +33,13 @@ public class ListOfFilesFilterTest {
 		
 		assertEquals(3, filter.getListOfFiles().size());
 	}
+
+	@Test
+	public void testNamesAreMatchedIgnoringCase() {
+		final LicenseFilter license = new LicenseFilter();
+
+		assertTrue(license.accept("LICENSE.TXT"));
+		assertTrue(license.accept("Licence"));
+		assertFalse(license.accept("LICENSE.md"));
+	}
 }